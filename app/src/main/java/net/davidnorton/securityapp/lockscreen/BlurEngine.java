@@ -0,0 +1,326 @@
+package net.davidnorton.securityapp.lockscreen;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.RSRuntimeException;
+import android.renderscript.ScriptIntrinsicBlur;
+import android.renderscript.Type;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Blurs the wallpaper for the lock screen on a background thread, stores
+ * it where the WallpaperCache reads it and has the cache prepare it.
+ *
+ * The RenderScript context and blur script are created once for the whole
+ * app, and the allocations are kept for as long as the size of the
+ * wallpaper doesn't change, instead of being created for every blur.
+ *
+ * @author David Norton
+ */
+public final class BlurEngine {
+
+    private final static String TAG = "BlurEngine";
+
+    // Wallpaper is scaled down before blurring.
+    private static final float BITMAP_SCALE = 0.1f;
+
+    // WallpaperManager.FLAG_SYSTEM, API 24.
+    private static final int FLAG_SYSTEM = 1;
+
+    // Blur radius supported by ScriptIntrinsicBlur.
+    private static final int MAX_RADIUS = 25;
+
+    private static BlurEngine instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only used on the blur thread.
+    private RenderScript renderScript;
+    private ScriptIntrinsicBlur script;
+    private Allocation input, output;
+
+    /**
+     * Receives the result of a blur on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * @param success true if the blurred wallpaper was stored.
+         */
+        void onBlurred(boolean success);
+    }
+
+    private BlurEngine(Context context) {
+
+        this.context = context;
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Gets the engine shared by the whole app.
+     *
+     * @param context Context.
+     * @return The engine.
+     */
+    public static synchronized BlurEngine getInstance(Context context) {
+
+        if (instance == null) {
+            instance = new BlurEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Blurs the current wallpaper and stores it in the background.
+     *
+     * @param radius Blur radius, 1-25.
+     * @param callback Callback, or null.
+     */
+    public void blurWallpaper(final int radius, final Callback callback) {
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+
+                long start = System.nanoTime();
+                final boolean success = blurAndStore(radius);
+                Log.i(TAG, "Wallpaper blurred in " + (System.nanoTime() - start) / 1000000 + "ms: " + success);
+
+                // Have it ready for the lock screen.
+                if (success) {
+                    WallpaperCache.prepare(context, radius);
+                }
+
+                if (callback != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onBlurred(success);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private boolean blurAndStore(int radius) {
+
+        Bitmap bitmapToBlur = decodeWallpaper();
+        if (bitmapToBlur == null) {
+            return false;
+        }
+
+        Bitmap blurredWallpaper;
+        try {
+            blurredWallpaper = blur(bitmapToBlur, radius);
+        } catch (RSRuntimeException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        // Create the folder of the blurred wallpaper if it doesn't exist.
+        File folder = ImageUtils.getBlurredWallpaperFile().getParentFile();
+        if (!folder.exists() && !folder.mkdirs()) {
+            Log.e(TAG, "Could not create " + folder);
+            return false;
+        }
+
+        return ImageUtils.storeImage(blurredWallpaper);
+    }
+
+    /**
+     * Gets the wallpaper already scaled down for blurring, so memory used is
+     * proportional to the blurred wallpaper rather than the wallpaper.
+     *
+     * @return The scaled wallpaper, or null if there is none.
+     */
+    private Bitmap decodeWallpaper() {
+
+        WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+
+        // Decode the wallpaper file subsampled where it is available.
+        if (Build.VERSION.SDK_INT >= 24) {
+            Bitmap scaled = decodeWallpaperFile(wallpaperManager);
+            if (scaled != null) {
+                return scaled;
+            }
+        }
+
+        // Otherwise draw the wallpaper straight into a scaled bitmap.
+        Drawable wallpaperDrawable = wallpaperManager.peekFastDrawable();
+        if (wallpaperDrawable == null) {
+            return null;
+        }
+
+        int width = wallpaperDrawable.getIntrinsicWidth();
+        int height = wallpaperDrawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        Bitmap scaled = Bitmap.createBitmap(scaledSize(width), scaledSize(height), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(scaled);
+        canvas.scale((float) scaled.getWidth() / width, (float) scaled.getHeight() / height);
+        wallpaperDrawable.setBounds(0, 0, width, height);
+        wallpaperDrawable.draw(canvas);
+
+        // Don't keep the full wallpaper loaded by peekFastDrawable.
+        wallpaperManager.forgetLoadedWallpaper();
+
+        return scaled;
+    }
+
+    /**
+     * Decodes the wallpaper file with the largest sample size that is still
+     * at least the scaled size, then scales it to that size.
+     *
+     * getWallpaperFile() is API 24, so it is called by reflection.
+     *
+     * @param wallpaperManager Wallpaper manager.
+     * @return The scaled wallpaper, or null if the file could not be read.
+     */
+    private Bitmap decodeWallpaperFile(WallpaperManager wallpaperManager) {
+
+        try {
+            Method getWallpaperFile = WallpaperManager.class.getMethod("getWallpaperFile", int.class);
+            ParcelFileDescriptor file = (ParcelFileDescriptor) getWallpaperFile.invoke(wallpaperManager, FLAG_SYSTEM);
+
+            // Built-in wallpaper.
+            if (file == null) {
+                return null;
+            }
+
+            try {
+                FileDescriptor descriptor = file.getFileDescriptor();
+
+                // Read the size only, this doesn't move the descriptor.
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+
+                int width = scaledSize(options.outWidth);
+                int height = scaledSize(options.outHeight);
+
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = sampleSize(options.outWidth, options.outHeight, width, height);
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+                Bitmap sampled = BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+                if (sampled == null) {
+                    return null;
+                }
+
+                Bitmap scaled = Bitmap.createScaledBitmap(sampled, width, height, true);
+                if (scaled != sampled) {
+                    sampled.recycle();
+                }
+                return scaled;
+            } finally {
+                file.close();
+            }
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Gets the size of a wallpaper dimension once scaled down for blurring.
+     *
+     * @param size Width or height of the wallpaper.
+     * @return Scaled width or height, at least 1.
+     */
+    static int scaledSize(int size) {
+        return Math.max(Math.round(size * BITMAP_SCALE), 1);
+    }
+
+    /**
+     * Gets the largest power of two sample size that decodes an image at
+     * least as large as the target size.
+     *
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param targetWidth Smallest width wanted.
+     * @param targetHeight Smallest height wanted.
+     * @return Sample size for BitmapFactory.Options.inSampleSize.
+     */
+    static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+
+        int sample = 1;
+        while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Blurs a scaled down wallpaper, reusing the allocations of the last
+     * blur if it was the same size.
+     *
+     * @param scaled ARGB_8888 bitmap to blur, recycled.
+     * @param radius Blur radius.
+     * @return The blurred bitmap.
+     */
+    private Bitmap blur(Bitmap scaled, int radius) {
+
+        int width = scaled.getWidth();
+        int height = scaled.getHeight();
+
+        if (renderScript == null) {
+            renderScript = RenderScript.create(context);
+            script = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
+        }
+
+        // Create new allocations only if the size changed.
+        if (input == null || input.getType().getX() != width || input.getType().getY() != height) {
+
+            if (input != null) {
+                input.destroy();
+                output.destroy();
+            }
+
+            Type type = Type.createXY(renderScript, Element.U8_4(renderScript), width, height);
+            input = Allocation.createTyped(renderScript, type);
+            output = Allocation.createTyped(renderScript, type);
+        }
+
+        Bitmap blurred = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+        input.copyFrom(scaled);
+        script.setRadius(Math.min(Math.max(radius, 1), MAX_RADIUS));
+        script.setInput(input);
+        script.forEach(output);
+        output.copyTo(blurred);
+
+        scaled.recycle();
+
+        return blurred;
+    }
+}
@@ -20,6 +20,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.hardware.Camera;
 import android.hardware.Camera.Parameters;
@@ -41,6 +43,7 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnTouchListener;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
@@ -50,16 +53,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EventLog;
+import net.davidnorton.securityapp.services.SettingsRepository;
+import net.davidnorton.securityapp.services.TriggerMetrics;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -76,6 +78,9 @@ import java.util.Locale;
  */
 public class LockscreenActivity extends Activity implements View.OnClickListener, View.OnTouchListener, GestureDetector.OnGestureListener {
 
+    // Intent extra with the System.nanoTime() the screen was turned off.
+    public static final String EXTRA_LOCKED_AT = "lockedAt";
+
     // Contents of JSON file.
     private JSONObject root;
     private JSONObject settings;
@@ -157,7 +162,35 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
     protected void onCreate(Bundle savedInstanceState) {
 
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_lockscreen);
+
+        // Time the screen was turned off, or now if started some other way.
+        final long lockedAt = getIntent().getLongExtra(EXTRA_LOCKED_AT, System.nanoTime());
+
+        // Attach the lock screen prepared by the service if there is one, otherwise inflate it.
+        LockscreenPreloader.Prepared prepared = LockscreenPreloader.take();
+        final boolean warm = prepared != null;
+        if (warm) {
+            setContentView(prepared.view);
+        } else {
+            setContentView(R.layout.activity_lockscreen);
+        }
+        EventLog.add(EventLog.LOCKED, null, 0);
+
+        // Record the time taken to show the lock screen on its first frame.
+        final View content = findViewById(R.id.lockRelativeLayout);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (warm) {
+                    TriggerMetrics.lockscreenWarmShowTime.recordSince(lockedAt);
+                } else {
+                    TriggerMetrics.lockscreenColdShowTime.recordSince(lockedAt);
+                }
+                return true;
+            }
+        });
 
         readFromJSON();
         gestureDetector = new GestureDetector(this, this);
@@ -172,7 +205,7 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
 
         // Initialize home launcher.
         homeLauncher = new ComponentName(this, "net.davidnorton.securityapp.SmartLockLauncher");
-        packageManager.setComponentEnabledSetting(homeLauncher, componentEnabled, PackageManager.DONT_KILL_APP);
+        setHomeLauncherEnabled(true);
 
         // Get Audio service for changing volume.
         audioManager = (AudioManager) this.getSystemService(Context.AUDIO_SERVICE);
@@ -212,10 +245,10 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
         phoneRinging = surfaceView.getHolder();
 
         // Set blurred or normal wallpaper.
-        Drawable blurredWallpaper = ImageUtils.retrieveWallpaperDrawable();
+        Bitmap blurredWallpaper = blur != 0 ? WallpaperCache.get(this, blur) : null;
 
-        if (blurredWallpaper != null && blur != 0)
-            getWindow().setBackgroundDrawable(blurredWallpaper);
+        if (blurredWallpaper != null)
+            getWindow().setBackgroundDrawable(new BitmapDrawable(getResources(), blurredWallpaper));
         else {
             WallpaperManager wallpaperManager = WallpaperManager.getInstance(this);
             Drawable wallpaperDrawable = wallpaperManager.peekFastDrawable();
@@ -294,10 +327,17 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
         this.registerReceiver(mChangeReceiver, intentFilter);
 
         // Initialize animations
-        slideDown = AnimationUtils.loadAnimation(this, R.anim.slide_down);
-        slideUp = AnimationUtils.loadAnimation(this, R.anim.slide_up);
-        fadeOut = AnimationUtils.loadAnimation(this, R.anim.fade_out);
-        fadeIn = AnimationUtils.loadAnimation(this, R.anim.fade_in);
+        if (warm) {
+            slideDown = prepared.slideDown;
+            slideUp = prepared.slideUp;
+            fadeOut = prepared.fadeOut;
+            fadeIn = prepared.fadeIn;
+        } else {
+            slideDown = AnimationUtils.loadAnimation(this, R.anim.slide_down);
+            slideUp = AnimationUtils.loadAnimation(this, R.anim.slide_up);
+            fadeOut = AnimationUtils.loadAnimation(this, R.anim.fade_out);
+            fadeIn = AnimationUtils.loadAnimation(this, R.anim.fade_in);
+        }
 
         // Display bottom drawer on swipe up.
         up.setOnTouchListener(new OnTouchListener() {
@@ -417,6 +457,20 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
         }
     }
 
+    /**
+     * Enable or disable the lock screen as home launcher, only changing
+     * the package settings if the state is different.
+     *
+     * @param enabled If the lock screen should be the home launcher.
+     */
+    private void setHomeLauncherEnabled(boolean enabled) {
+
+        int state = enabled ? componentEnabled : componentDisabled;
+        if (packageManager.getComponentEnabledSetting(homeLauncher) != state) {
+            packageManager.setComponentEnabledSetting(homeLauncher, state, PackageManager.DONT_KILL_APP);
+        }
+    }
+
     /**
      * Check if default home launcher.
      *
@@ -1168,7 +1222,9 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
                     delayHandler.removeCallbacksAndMessages(null);
 
                     // Disable as home activity so home button doesn't launch the lock screen, but don't kill app.
-                    packageManager.setComponentEnabledSetting(homeLauncher, componentDisabled, PackageManager.DONT_KILL_APP);
+                    setHomeLauncherEnabled(false);
+
+                    EventLog.add(EventLog.UNLOCKED, null, EventLog.UNLOCK_PIN);
 
                     // Close lock screen.
                     finish();
@@ -1272,7 +1328,7 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
 
         // Re-enable as home launcher.
         if (packageManager != null) {
-            packageManager.setComponentEnabledSetting(homeLauncher, componentEnabled, PackageManager.DONT_KILL_APP);
+            setHomeLauncherEnabled(true);
         }
 
         // If NFC is enabled.
@@ -1325,7 +1381,9 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
                                         delayHandler.removeCallbacksAndMessages(null);
 
                                         // Disable as home activity so home button doesn't launch the lock screen, but don't kill app.
-                                        packageManager.setComponentEnabledSetting(homeLauncher, componentDisabled, PackageManager.DONT_KILL_APP);
+                                        setHomeLauncherEnabled(false);
+
+                                        EventLog.add(EventLog.UNLOCKED, null, EventLog.UNLOCK_NFC);
 
                                         // Close lock screen.
                                         finish();
@@ -1418,7 +1476,9 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
                             delayHandler.removeCallbacksAndMessages(null);
 
                             // Disable as home activity so home button doesn't launch the lock screen, but don't kill app.
-                            packageManager.setComponentEnabledSetting(homeLauncher, componentDisabled, PackageManager.DONT_KILL_APP);
+                            setHomeLauncherEnabled(false);
+
+                            EventLog.add(EventLog.UNLOCKED, null, EventLog.UNLOCK_NFC);
 
                             // Close lock screen.
                             finish();
@@ -1507,7 +1567,7 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
 
         // Disable as home activity so home button doesn't launch the lock screen, but don't kill app.
         if (packageManager != null) {
-            packageManager.setComponentEnabledSetting(homeLauncher, componentDisabled, PackageManager.DONT_KILL_APP);
+            setHomeLauncherEnabled(false);
         }
 
         // Unregister background receivers .
@@ -1569,6 +1629,9 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
                 anfe.printStackTrace();
             }
         }
+
+        // Prepare the next lock screen.
+        LockscreenPreloader.schedule();
     }
 
 
@@ -1578,12 +1641,7 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
     private void readFromJSON() {
 
         // Read root object.
-        try {
-            BufferedReader bReader = new BufferedReader(new InputStreamReader(openFileInput("settings.json")));
-            root = new JSONObject(bReader.readLine());
-        } catch (JSONException | IOException e) {
-            e.printStackTrace();
-        }
+        root = SettingsRepository.getInstance(this).getRoot();
 
         // Read settings object from root object.
         try {
@@ -1604,19 +1662,10 @@ public class LockscreenActivity extends Activity implements View.OnClickListener
     }
 
     /**
-     * Write to JSON file.
+     * Write to JSON file, in the background and only if changed.
      */
     private void writeToJSON() {
-
-        // Write JSON root object.
-        try {
-            BufferedWriter bWriter = new BufferedWriter(new OutputStreamWriter
-                    (openFileOutput("settings.json", Context.MODE_PRIVATE)));
-            bWriter.write(root.toString());
-            bWriter.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        SettingsRepository.getInstance(this).save();
     }
 
     /**
@@ -0,0 +1,142 @@
+package net.davidnorton.securityapp.lockscreen;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+
+import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.SettingsRepository;
+
+import org.json.JSONObject;
+
+/**
+ * Prepares the parts of the lock screen that don't depend on the device
+ * state while the lock screen service is running, so showing the lock
+ * screen only has to attach the views and bind them.
+ *
+ * The layout is inflated and the animations are loaded when the main thread
+ * is idle, and handed to the next lock screen once. The blurred wallpaper is
+ * loaded into the WallpaperCache at the same time.
+ *
+ * Must only be used on the main thread.
+ *
+ * @author David Norton
+ */
+public final class LockscreenPreloader {
+
+    private final static String TAG = "LockscreenPreloader";
+
+    private static Context context;
+    private static boolean scheduled;
+
+    // Prepared lock screen, taken by the next lock screen.
+    private static Prepared prepared;
+
+    private LockscreenPreloader() {
+    }
+
+    /**
+     * Views and animations of a lock screen prepared ahead of time.
+     */
+    static final class Prepared {
+
+        final View view;
+        final Animation slideUp, slideDown, fadeIn, fadeOut;
+
+        private Prepared(Context context) {
+
+            // Inflate with the theme of the lock screen activity.
+            Context themed = new ContextThemeWrapper(context, R.style.NoActionBar_Wallpaper);
+            view = LayoutInflater.from(themed).inflate(R.layout.activity_lockscreen, null);
+
+            slideDown = AnimationUtils.loadAnimation(context, R.anim.slide_down);
+            slideUp = AnimationUtils.loadAnimation(context, R.anim.slide_up);
+            fadeOut = AnimationUtils.loadAnimation(context, R.anim.fade_out);
+            fadeIn = AnimationUtils.loadAnimation(context, R.anim.fade_in);
+        }
+    }
+
+    /**
+     * Starts preparing lock screens, called when the lock screen service starts.
+     *
+     * @param context Context.
+     */
+    public static void start(Context context) {
+
+        LockscreenPreloader.context = context.getApplicationContext();
+        schedule();
+    }
+
+    /**
+     * Stops preparing lock screens and releases what was prepared,
+     * called when the lock screen service stops.
+     */
+    public static void stop() {
+
+        context = null;
+        prepared = null;
+        WallpaperCache.release();
+    }
+
+    /**
+     * Takes the prepared lock screen, and prepares the next one after
+     * this one is closed.
+     *
+     * @return The prepared lock screen, or null if none is ready.
+     */
+    static Prepared take() {
+
+        Prepared taken = prepared;
+        prepared = null;
+        return taken;
+    }
+
+    /**
+     * Prepares the next lock screen once the main thread is idle.
+     */
+    static void schedule() {
+
+        if (context == null || scheduled) {
+            return;
+        }
+
+        scheduled = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+
+                scheduled = false;
+                prepare();
+                return false;
+            }
+        });
+    }
+
+    private static void prepare() {
+
+        if (context == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        if (prepared == null) {
+            prepared = new Prepared(context);
+        }
+
+        // Read the blurred wallpaper if it is used.
+        JSONObject settings = SettingsRepository.getInstance(context).getRoot().optJSONObject("settings");
+        int blur = settings != null ? settings.optInt("blur", 0) : 0;
+        if (blur != 0) {
+            WallpaperCache.get(context, blur);
+        }
+
+        Log.i(TAG, "Lock screen prepared in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+}
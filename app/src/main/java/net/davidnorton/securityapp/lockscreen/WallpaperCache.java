@@ -0,0 +1,307 @@
+package net.davidnorton.securityapp.lockscreen;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.util.Log;
+import android.view.WindowManager;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the blurred wallpaper ready for the lock screen, scaled to the size
+ * of the display.
+ *
+ * The bitmap is kept in memory across lock screens, and its pixels are
+ * stored uncompressed in the cache directory, so after a restart they are
+ * mapped back into a bitmap instead of decoding the PNG. Both are keyed by
+ * the blur value, the size of the display, and the last modified time and
+ * length of the blurred wallpaper, so a new wallpaper is never shown stale.
+ * The BlurEngine prepares each new blurred wallpaper on its own thread, so
+ * the lock screen doesn't decode it.
+ *
+ * @author David Norton
+ */
+public final class WallpaperCache {
+
+    private final static String TAG = "WallpaperCache";
+
+    private static final String FILE = "wallpaper.raw";
+    private static final int MAGIC = 0x534c5750;
+
+    // Magic, blur, modified, length, width, height.
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+    // Bitmap in memory and what it was made from.
+    private static Bitmap bitmap;
+    private static Key key;
+
+    // Held while writing the cache file.
+    private static final Object writeLock = new Object();
+
+    private WallpaperCache() {
+    }
+
+    /**
+     * Identifies a blurred wallpaper at a size.
+     */
+    private static final class Key {
+
+        final int blur;
+        final long modified;
+        final long length;
+        final int width;
+        final int height;
+
+        Key(int blur, long modified, long length, int width, int height) {
+            this.blur = blur;
+            this.modified = modified;
+            this.length = length;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return blur == other.blur && modified == other.modified && length == other.length
+                    && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (modified ^ length) * 31 + blur;
+        }
+    }
+
+    /**
+     * Gets the blurred wallpaper at the size of the display, from memory,
+     * the cache directory or the blurred wallpaper file, in that order.
+     *
+     * @param context Context.
+     * @param blur Blur value the wallpaper was made with.
+     * @return The blurred wallpaper, or null if there is none. Must not be modified.
+     */
+    static synchronized Bitmap get(Context context, int blur) {
+
+        File source = ImageUtils.getBlurredWallpaperFile();
+        if (!ImageUtils.isExternalStorageReadable() || !source.exists()) {
+            return null;
+        }
+
+        Point size = getDisplaySize(context);
+        Key wanted = new Key(blur, source.lastModified(), source.length(), size.x, size.y);
+
+        // Still in memory.
+        if (bitmap != null && wanted.equals(key)) {
+            return bitmap;
+        }
+
+        File file = new File(context.getCacheDir(), FILE);
+
+        long start = System.nanoTime();
+        Bitmap loaded = read(file, wanted);
+
+        if (loaded != null) {
+            Log.i(TAG, "Wallpaper read from cache in " + (System.nanoTime() - start) / 1000000 + "ms");
+        } else {
+            loaded = decode(source, wanted);
+            if (loaded == null) {
+                return null;
+            }
+            Log.i(TAG, "Wallpaper decoded in " + (System.nanoTime() - start) / 1000000 + "ms");
+            writeInBackground(file, wanted, loaded);
+        }
+
+        bitmap = loaded;
+        key = wanted;
+        return bitmap;
+    }
+
+    /**
+     * Decodes a newly blurred wallpaper and stores it in the cache directory,
+     * called off the main thread. It replaces the bitmap in memory if there
+     * is one, so a lock screen in use gets it straight away.
+     *
+     * @param context Context.
+     * @param blur Blur value the wallpaper was made with.
+     */
+    static void prepare(Context context, int blur) {
+
+        File source = ImageUtils.getBlurredWallpaperFile();
+        if (!ImageUtils.isExternalStorageReadable() || !source.exists()) {
+            return;
+        }
+
+        Point size = getDisplaySize(context);
+        Key wanted = new Key(blur, source.lastModified(), source.length(), size.x, size.y);
+
+        long start = System.nanoTime();
+        Bitmap decoded = decode(source, wanted);
+        if (decoded == null) {
+            return;
+        }
+
+        synchronized (writeLock) {
+            write(new File(context.getCacheDir(), FILE), wanted, decoded);
+        }
+
+        synchronized (WallpaperCache.class) {
+            if (bitmap != null) {
+                bitmap = decoded;
+                key = wanted;
+            }
+        }
+        Log.i(TAG, "Wallpaper prepared in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    /**
+     * Releases the bitmap in memory, keeping the cache directory copy.
+     */
+    static synchronized void release() {
+
+        bitmap = null;
+        key = null;
+    }
+
+    /**
+     * Gets the size of the display in portrait.
+     *
+     * @param context Context.
+     * @return Width and height.
+     */
+    private static Point getDisplaySize(Context context) {
+
+        Point size = new Point();
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        windowManager.getDefaultDisplay().getRealSize(size);
+        return new Point(Math.min(size.x, size.y), Math.max(size.x, size.y));
+    }
+
+    /**
+     * Decodes the blurred wallpaper and scales it to the size of the display.
+     *
+     * @param source Blurred wallpaper file.
+     * @param key Wanted wallpaper.
+     * @return The wallpaper, or null if it could not be decoded.
+     */
+    private static Bitmap decode(File source, Key key) {
+
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath());
+        if (decoded == null) {
+            return null;
+        }
+
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, key.width, key.height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled.getConfig() == Bitmap.Config.ARGB_8888 ? scaled : scaled.copy(Bitmap.Config.ARGB_8888, false);
+    }
+
+    /**
+     * Reads the pixels stored in the cache directory if they match the wanted wallpaper.
+     *
+     * @param file Cache file.
+     * @param key Wanted wallpaper.
+     * @return The wallpaper, or null if not stored.
+     */
+    private static Bitmap read(File file, Key key) {
+
+        long pixels = (long) key.width * key.height * 4;
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                if (input.length() != HEADER_SIZE + pixels
+                        || input.readInt() != MAGIC
+                        || !key.equals(new Key(input.readInt(), input.readLong(), input.readLong(), input.readInt(), input.readInt()))) {
+                    return null;
+                }
+
+                MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, pixels);
+                Bitmap read = Bitmap.createBitmap(key.width, key.height, Bitmap.Config.ARGB_8888);
+                read.copyPixelsFromBuffer(buffer);
+                return read;
+            } finally {
+                input.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the pixels of a wallpaper in the cache directory on a background thread.
+     *
+     * @param file Cache file.
+     * @param key Stored wallpaper.
+     * @param wallpaper The wallpaper.
+     */
+    private static void writeInBackground(final File file, final Key key, final Bitmap wallpaper) {
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                synchronized (writeLock) {
+                    write(file, key, wallpaper);
+                }
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Stores the pixels of a wallpaper in the cache directory, replacing the
+     * file only once it is complete.
+     *
+     * @param file Cache file.
+     * @param key Stored wallpaper.
+     * @param wallpaper The wallpaper.
+     */
+    private static void write(File file, Key key, Bitmap wallpaper) {
+
+        File temp = new File(file.getPath() + ".tmp");
+        long pixels = (long) key.width * key.height * 4;
+
+        try {
+            RandomAccessFile output = new RandomAccessFile(temp, "rw");
+            try {
+                output.setLength(HEADER_SIZE + pixels);
+                output.writeInt(MAGIC);
+                output.writeInt(key.blur);
+                output.writeLong(key.modified);
+                output.writeLong(key.length);
+                output.writeInt(key.width);
+                output.writeInt(key.height);
+
+                MappedByteBuffer buffer = output.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, pixels);
+                wallpaper.copyPixelsToBuffer(buffer);
+                buffer.force();
+            } finally {
+                output.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "Could not replace cached wallpaper");
+                temp.delete();
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package net.davidnorton.securityapp.profile;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.media.AudioManager;
+import android.net.wifi.WifiManager;
+import android.provider.Settings;
+
+import net.davidnorton.securityapp.services.LockScreenService;
+
+/**
+ * Reads the current state of the settings a Profile can change, and works
+ * out which settings of a Profile differ from it, so only those are applied.
+ *
+ * The state is held in a Profile, where unchanged means the setting could
+ * not be read and is always applied.
+ *
+ * @author David Norton
+ */
+class DeviceState {
+
+    private DeviceState() {
+    }
+
+    /**
+     * Reads the current device state once.
+     *
+     * @param context Context.
+     * @return The current state.
+     */
+    static Profile read(Context context) {
+
+        Profile current = new Profile(null);
+        ContentResolver resolver = context.getContentResolver();
+
+        // Lockscreen
+        current.setLockscreen(toState(LockScreenService.isRunning()));
+
+        // WiFi
+        WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager != null) {
+            current.setWifi(toState(wifiManager.isWifiEnabled()));
+        }
+
+        // Mobile Data
+        int mobileData = Settings.Global.getInt(resolver, "mobile_data", -1);
+        if (mobileData != -1) {
+            current.setMobileData(toState(mobileData == 1));
+        }
+
+        // Bluetooth
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter != null) {
+            current.setBluetooth(toState(bluetoothAdapter.isEnabled()));
+        }
+
+        // Auto Screen Brightness
+        int brightnessMode = Settings.System.getInt(resolver, Settings.System.SCREEN_BRIGHTNESS_MODE, -1);
+        if (brightnessMode != -1) {
+            current.setScreenBrightnessAutoMode(toState(brightnessMode == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC));
+        }
+
+        // Display Timeout, stored in milliseconds.
+        current.setScreenTimeOut(Settings.System.getInt(resolver, Settings.System.SCREEN_OFF_TIMEOUT, -1));
+
+        // Ringer Mode
+        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        if (audioManager != null) {
+            switch (audioManager.getRingerMode()) {
+                case AudioManager.RINGER_MODE_NORMAL:
+                    current.setRingerMode(Profile.mode.normal);
+                    break;
+                case AudioManager.RINGER_MODE_SILENT:
+                    current.setRingerMode(Profile.mode.silent);
+                    break;
+                case AudioManager.RINGER_MODE_VIBRATE:
+                    current.setRingerMode(Profile.mode.vibrate);
+                    break;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Works out the settings of a Profile that differ from the current state.
+     *
+     * @param current The current state, from read(), with the timeout in milliseconds.
+     * @param profile The Profile to apply.
+     * @return A Profile with only the settings that need to be changed, the others unchanged.
+     */
+    static Profile changes(Profile current, Profile profile) {
+
+        Profile changes = new Profile(profile.getName());
+
+        changes.setLockscreen(change(current.getLockscreen(), profile.getLockscreen()));
+        changes.setWifi(change(current.getWifi(), profile.getWifi()));
+        changes.setMobileData(change(current.getMobileData(), profile.getMobileData()));
+        changes.setBluetooth(change(current.getBluetooth(), profile.getBluetooth()));
+        changes.setScreenBrightnessAutoMode(change(current.getScreenBrightnessAutoMode(), profile.getScreenBrightnessAutoMode()));
+
+        if (profile.getScreenTimeOut() != -1
+                && Setter.getScreenTimeoutMillis(profile.getScreenTimeOut()) != current.getScreenTimeOut()) {
+            changes.setScreenTimeOut(profile.getScreenTimeOut());
+        }
+
+        if (profile.getRingerMode() != current.getRingerMode()) {
+            changes.setRingerMode(profile.getRingerMode());
+        }
+
+        return changes;
+    }
+
+    /**
+     * @return true if applying the changes would not change anything.
+     */
+    static boolean isEmpty(Profile changes) {
+
+        return changes.getLockscreen() == Profile.state.unchanged
+                && changes.getWifi() == Profile.state.unchanged
+                && changes.getMobileData() == Profile.state.unchanged
+                && changes.getBluetooth() == Profile.state.unchanged
+                && changes.getScreenBrightnessAutoMode() == Profile.state.unchanged
+                && changes.getScreenTimeOut() == -1
+                && changes.getRingerMode() == Profile.mode.unchanged;
+    }
+
+    private static Profile.state change(Profile.state current, Profile.state wanted) {
+        return wanted == current ? Profile.state.unchanged : wanted;
+    }
+
+    private static Profile.state toState(boolean enabled) {
+        return enabled ? Profile.state.enabled : Profile.state.disabled;
+    }
+}
@@ -6,7 +6,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.preference.PreferenceManager;
@@ -16,17 +15,14 @@ import android.util.Log;
 import android.widget.Toast;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EntityStore;
+import net.davidnorton.securityapp.services.EventLog;
+import net.davidnorton.securityapp.services.TriggerMetrics;
 import net.davidnorton.securityapp.ui.MainActivity;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 /**
  * Used to create and apply Profiles and also
  * updates the notification on a Profile change.
@@ -50,16 +46,17 @@ public class Handler {
      */
     public void applyProfile(String name) {
 
+        long start = System.nanoTime();
+
         // Apply the profile.
-        XmlParser parser = new XmlParser(context);
-        try {
-            parser.initializeXmlParser(context.openFileInput(name + "_profile.xml"));
-        } catch (Resources.NotFoundException | IOException | XmlPullParserException e) {
-            e.printStackTrace();
+        Profile profile = ProfileCache.get(context, name);
+        if (profile != null) {
+            applyChanges(profile);
         }
 
         // Save profile as current active profile.
         pref.edit().putString("active_profile", name).apply();
+        EventLog.add(EventLog.PROFILE_APPLIED, name, 0);
 
         // Update the notification.
         if (pref.getBoolean("notification", true)) {
@@ -69,6 +66,9 @@ public class Handler {
         // Show toast confirming the Profile was applied.
         Toast toast = Toast.makeText(context, name + " " + context.getResources().getString(R.string.profile_applied),Toast.LENGTH_SHORT);
         toast.show();
+
+        TriggerMetrics.profileSwitches.increment();
+        TriggerMetrics.profileSwitchTime.recordSince(start);
     }
 
     /**
@@ -78,21 +78,25 @@ public class Handler {
      */
     public void applyProfileHidden(String name) {
 
+        long start = System.nanoTime();
+
         // Apply the profile.
-        XmlParser parser = new XmlParser(context);
-        try {
-            parser.initializeXmlParser(context.openFileInput(name + "_profile.xml"));
-        } catch (Resources.NotFoundException | IOException | XmlPullParserException e) {
-            e.printStackTrace();
+        Profile profile = ProfileCache.get(context, name);
+        if (profile != null) {
+            applyChanges(profile);
         }
 
         // Save profile as current active profile.
         pref.edit().putString("active_profile", name).apply();
+        EventLog.add(EventLog.PROFILE_APPLIED, name, 0);
 
         // Update the notification.
         if (pref.getBoolean("notification", true)) {
             updateNotification();
         }
+
+        TriggerMetrics.profileSwitches.increment();
+        TriggerMetrics.profileSwitchTime.recordSince(start);
     }
 
     /**
@@ -101,29 +105,66 @@ public class Handler {
      * @param profile The profile-object.
      */
     public void applyProfile(Profile profile) {
+
         //TODO: this is for NFC
 
+        long start = System.nanoTime();
+
+        applyChanges(profile);
+
+        // Saves the active profile into the shared preferences
+        pref.edit().putString("active_profile", profile.getName()).commit();
+        EventLog.add(EventLog.PROFILE_APPLIED, profile.getName(), 0);
+
+        // Update the notification.
+        if (pref.getBoolean("notification", true)) {
+            updateNotification();
+        }
+
+        // Show toast confirming the Profile was applied.
+        Toast toast = Toast.makeText(context, profile.getName() + " was applied!", Toast.LENGTH_SHORT);
+        toast.show();
+
+        TriggerMetrics.profileSwitches.increment();
+        TriggerMetrics.profileSwitchTime.recordSince(start);
+    }
+
+    /**
+     * Reads the current device state once and applies only the settings
+     * of the Profile that differ from it.
+     *
+     * @param profile The Profile to apply.
+     */
+    private void applyChanges(Profile profile) {
+
+        Profile changes = DeviceState.changes(DeviceState.read(context), profile);
+
+        if (DeviceState.isEmpty(changes)) {
+            Log.i("Handler", "Device already matches " + profile.getName());
+            return;
+        }
+
         Setter setter = new Setter();
 
         // Lockscreen
-        if (profile.getLockscreen() == Profile.state.enabled) {
+        if (changes.getLockscreen() == Profile.state.enabled) {
             setter.setLockscreen(context, true);
-        } else if (profile.getLockscreen() == Profile.state.disabled) {
+        } else if (changes.getLockscreen() == Profile.state.disabled) {
             setter.setLockscreen(context, false);
         }
 
         // WiFi
-        if (profile.getWifi() == Profile.state.enabled) {
+        if (changes.getWifi() == Profile.state.enabled) {
             setter.setWifi(context, true);
-        } else if (profile.getWifi() == Profile.state.disabled) {
+        } else if (changes.getWifi() == Profile.state.disabled) {
             setter.setWifi(context, false);
         }
 
         // Mobile Data
         try {
-            if (profile.getMobileData() == Profile.state.enabled) {
+            if (changes.getMobileData() == Profile.state.enabled) {
                 setter.setMobileData(context, true);
-            } else if (profile.getMobileData() == Profile.state.disabled) {
+            } else if (changes.getMobileData() == Profile.state.disabled) {
                 setter.setMobileData(context, false);
             }
         } catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
@@ -131,38 +172,28 @@ public class Handler {
         }
 
         // Bluetooth
-        if (profile.getBluetooth() == Profile.state.enabled) {
+        if (changes.getBluetooth() == Profile.state.enabled) {
             setter.setBluetooth(context, true);
-        } else if (profile.getBluetooth() == Profile.state.disabled) {
+        } else if (changes.getBluetooth() == Profile.state.disabled) {
             setter.setBluetooth(context, false);
         }
 
         // Auto Screen Brightness
-        if (profile.getScreenBrightnessAutoMode() == Profile.state.enabled) {
+        if (changes.getScreenBrightnessAutoMode() == Profile.state.enabled) {
             setter.setScreenBrightnessMode(context, true);
-        } else if (profile.getScreenBrightnessAutoMode() == Profile.state.disabled) {
+        } else if (changes.getScreenBrightnessAutoMode() == Profile.state.disabled) {
             setter.setScreenBrightnessMode(context, false);
         }
 
         // Display Timeout
-        if (profile.getScreenTimeOut() != -1) {
-            setter.setScreenTimeout(context, profile.getScreenTimeOut());
+        if (changes.getScreenTimeOut() != -1) {
+            setter.setScreenTimeout(context, changes.getScreenTimeOut());
         }
 
         // Ringer Mode
-        setter.setRingerMode(context, profile.getRingerMode());
-
-        // Saves the active profile into the shared preferences
-        pref.edit().putString("active_profile", profile.getName()).commit();
-
-        // Update the notification.
-        if (pref.getBoolean("notification", true)) {
-            updateNotification();
+        if (changes.getRingerMode() != Profile.mode.unchanged) {
+            setter.setRingerMode(context, changes.getRingerMode());
         }
-
-        // Show toast confirming the Profile was applied.
-        Toast toast = Toast.makeText(context, profile.getName() + " was applied!", Toast.LENGTH_SHORT);
-        toast.show();
     }
 
     /**
@@ -248,27 +279,17 @@ public class Handler {
         pWork.setScreenBrightnessAutoMode(Profile.state.enabled);
         pWork.setRingerMode(Profile.mode.vibrate);
 
-        // Create Profile files based on these defined preferences.
+        // Store Profiles based on these defined preferences.
         XmlCreator creator = new XmlCreator();
-        FileOutputStream output;
+        EntityStore store = EntityStore.getInstance(context);
         try {
-            output = context.openFileOutput(pDefault.getName() + "_profile.xml", Context.MODE_PRIVATE);
-            output.write(creator.create(pDefault).getBytes());
-            output.close();
-
-            output = context.openFileOutput(pHome.getName() + "_profile.xml", Context.MODE_PRIVATE);
-            output.write(creator.create(pHome).getBytes());
-            output.close();
-
-            output = context.openFileOutput(pTravel.getName() + "_profile.xml", Context.MODE_PRIVATE);
-            output.write(creator.create(pTravel).getBytes());
-            output.close();
-
-            output = context.openFileOutput(pWork.getName() + "_profile.xml", Context.MODE_PRIVATE);
-            output.write(creator.create(pWork).getBytes());
-            output.close();
-        } catch (IOException | ParserConfigurationException | TransformerException e) {
+            store.put(EntityStore.PROFILE, pDefault.getName(), creator.create(pDefault));
+            store.put(EntityStore.PROFILE, pHome.getName(), creator.create(pHome));
+            store.put(EntityStore.PROFILE, pTravel.getName(), creator.create(pTravel));
+            store.put(EntityStore.PROFILE, pWork.getName(), creator.create(pWork));
+        } catch (IOException e) {
             e.printStackTrace();
         }
+        ProfileCache.clear();
     }
 }
@@ -0,0 +1,103 @@
+package net.davidnorton.securityapp.profile;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import net.davidnorton.securityapp.services.EntityStore;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used parsed Profiles in memory, so applying a
+ * Profile doesn't read and parse its file every time. A Profile must be
+ * invalidated whenever it is written or deleted.
+ *
+ * @author David Norton
+ */
+public final class ProfileCache {
+
+    private final static String TAG = "ProfileCache";
+
+    private static final int MAX_PROFILES = 16;
+
+    // Parsed Profiles by name, least recently used first.
+    private static final Map<String, Profile> profiles = new LinkedHashMap<String, Profile>(MAX_PROFILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+            return size() > MAX_PROFILES;
+        }
+    };
+
+    // Increased on every invalidation, so a Profile read while it changed isn't cached.
+    private static int generation;
+
+    private ProfileCache() {
+    }
+
+    /**
+     * Gets a Profile, reading it from the EntityStore if it isn't cached.
+     *
+     * @param context Context.
+     * @param name Name of Profile.
+     * @return The Profile, or null if it could not be read. Must not be modified.
+     */
+    static Profile get(Context context, String name) {
+
+        int readGeneration;
+
+        synchronized (profiles) {
+            Profile profile = profiles.get(name);
+            if (profile != null) {
+                return profile;
+            }
+            readGeneration = generation;
+        }
+
+        Profile profile;
+        XmlParser parser = new XmlParser();
+        try {
+            profile = parser.initializeXmlParser(EntityStore.getInstance(context).open(EntityStore.PROFILE, name), name);
+        } catch (Resources.NotFoundException | IOException | XmlPullParserException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        synchronized (profiles) {
+            if (readGeneration == generation) {
+                profiles.put(name, profile);
+                Log.i(TAG, "Profile cached: " + name);
+            }
+        }
+
+        return profile;
+    }
+
+    /**
+     * Removes a Profile from the cache after it was written or deleted.
+     *
+     * @param name Name of Profile.
+     */
+    public static void invalidate(String name) {
+
+        synchronized (profiles) {
+            profiles.remove(name);
+            generation++;
+        }
+    }
+
+    /**
+     * Removes all Profiles from the cache.
+     */
+    public static void clear() {
+
+        synchronized (profiles) {
+            profiles.clear();
+            generation++;
+        }
+    }
+}
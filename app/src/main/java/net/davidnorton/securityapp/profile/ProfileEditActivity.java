@@ -20,14 +20,10 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EntityStore;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 /**
  * Activity used to edit the settings of a Profile.
  * 
@@ -363,18 +359,18 @@ public class ProfileEditActivity extends PreferenceActivity implements OnSharedP
 
         // Create the Profile.
 		XmlCreator creator = new XmlCreator();
+		EntityStore store = EntityStore.getInstance(this);
 		try {
-			FileOutputStream output = openFileOutput(profile.getName() + "_profile.xml", Context.MODE_PRIVATE);
-			output.write(creator.create(profile).getBytes());
-			output.close();
-		} catch (IOException | TransformerException | ParserConfigurationException e) {
+			store.put(EntityStore.PROFILE, profile.getName(), creator.create(profile));
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		ProfileCache.invalidate(profile.getName());
 
         // If Profile was renamed, delete the old Profile.
 		if (!(name.equals(previousName))) {
-			File file = new File(String.valueOf(getFilesDir()) + "/" + previousName + "_profile.xml");
-			file.delete();
+			store.delete(EntityStore.PROFILE, previousName);
+			ProfileCache.invalidate(previousName);
 		}
 	}
 
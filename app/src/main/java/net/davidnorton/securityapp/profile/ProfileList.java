@@ -14,6 +14,7 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EntityStore;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -92,7 +93,7 @@ public class ProfileList extends ArrayAdapter<String> implements OnClickListener
         XmlParserPref xmlParserPref = new XmlParserPref(context, v.getTag().toString());
 
 		try {
-			xmlParserPref.initializeXmlParser(context.openFileInput(v.getTag() + "_profile.xml"));
+			xmlParserPref.initializeXmlParser(EntityStore.getInstance(context).open(EntityStore.PROFILE, v.getTag().toString()));
 		} catch (XmlPullParserException | IOException e) {
 			e.printStackTrace();
 		}
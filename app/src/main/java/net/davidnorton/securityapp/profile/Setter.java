@@ -155,35 +155,38 @@ class Setter {
      */
     public void setScreenTimeout(Context context, int screenOffTimeout) {
 
-        int time;
+        int time = getScreenTimeoutMillis(screenOffTimeout);
+
+        android.provider.Settings.System.putInt(context.getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, time);
+        Log.i("Setter", "TimeOut: " + time);
+    }
+
+    /**
+     * Converts a screen timeout preference value to milliseconds.
+     *
+     * @param screenOffTimeout User preference state.
+     * @return Timeout in milliseconds, or -1 if not valid.
+     */
+    static int getScreenTimeoutMillis(int screenOffTimeout) {
+
         switch (screenOffTimeout) {
             case 0:
-                time = 15000;
-                break;
+                return 15000;
             case 1:
-                time = 30000;
-                break;
+                return 30000;
             case 2:
-                time = 60000;
-                break;
+                return 60000;
             case 3:
-                time = 120000;
-                break;
+                return 120000;
             case 4:
-                time = 300000;
-                break;
+                return 300000;
             case 5:
-                time = 600000;
-                break;
+                return 600000;
             case 6:
-                time = 1800000;
-                break;
+                return 1800000;
             default:
-                time = -1;
+                return -1;
         }
-
-        android.provider.Settings.System.putInt(context.getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, time);
-        Log.i("Setter", "TimeOut: " + time);
     }
 
     /**
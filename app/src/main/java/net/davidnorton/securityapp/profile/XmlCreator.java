@@ -1,27 +1,16 @@
 package net.davidnorton.securityapp.profile;
 
 import android.util.Log;
+import android.util.Xml;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.xmlpull.v1.XmlSerializer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Properties;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 /**
- * Converts a Profile into a string ready to be processed.
+ * Converts a Profile into an xml document ready to be stored.
  *
  * @author David Norton
  */
@@ -29,118 +18,97 @@ class XmlCreator {
 
     private final static String TAG = "XmlCreator";
 
-    private final DocumentBuilderFactory buildFactory = DocumentBuilderFactory.newInstance();
-    private DocumentBuilder builder;
-    private final TransformerFactory transFactory = TransformerFactory.newInstance();
-    private Transformer transformer;
-
     /**
-     * Creates a string storing the selected user preferences and saves to an xml.
+     * Creates an xml document storing the selected user preferences.
      *
      * @param profile The profile object.
      *
-     * @return The created xml string.
+     * @return The created xml document, UTF-8 encoded.
      *
-     * @throws ParserConfigurationException
-     * @throws TransformerException
      * @throws IOException
      */
-    public String create(Profile profile) throws ParserConfigurationException, TransformerException, IOException {
+    public byte[] create(Profile profile) throws IOException {
 
-        builder = buildFactory.newDocumentBuilder();
-        Document xmlProfile = builder.newDocument();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(512);
+        write(profile, output);
+        return output.toByteArray();
+    }
 
-        // Create xml root tag.
-        Element rootElement = xmlProfile.createElement("resources");
-        xmlProfile.appendChild(rootElement);
+    /**
+     * Writes an xml document storing the selected user preferences to a stream.
+     *
+     * @param profile The profile object.
+     * @param output Stream to write to.
+     *
+     * @throws IOException
+     */
+    public void write(Profile profile, OutputStream output) throws IOException {
 
-        // Declare output format.
-        Properties outputProperties = new Properties();
-        outputProperties.setProperty(OutputKeys.INDENT, "yes");
-        outputProperties.setProperty(OutputKeys.METHOD, "xml");
-        outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-        outputProperties.setProperty(OutputKeys.VERSION, "1.0");
-        outputProperties.setProperty(OutputKeys.ENCODING, "UTF-8");
+        XmlSerializer serializer = Xml.newSerializer();
+        serializer.setOutput(output, "UTF-8");
+        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
 
-        // Lock Screen
-        Element lockscreenElement = xmlProfile.createElement("lockscreen");
+        // Create xml root tag.
+        serializer.startDocument("UTF-8", false);
+        serializer.startTag(null, "resources");
 
-        if(profile.getLockscreen() != Profile.state.unchanged){
-            lockscreenElement.setAttribute("enabled", String.format("%s", profile.getLockscreen().ordinal()));
-        } else {
-            lockscreenElement.setAttribute("enabled", String.format("%s", -1));
-        }
-        rootElement.appendChild(lockscreenElement);
-        Log.i(TAG, String.format("lockscreen was defined as %s", profile.getLockscreen()));
+        // Lock Screen
+        writeState(serializer, "lockscreen", "enabled", profile.getLockscreen());
 
         // WiFi
-        Element wifiElement = xmlProfile.createElement("wifi");
-
-        if (profile.getWifi() != Profile.state.unchanged) {
-            wifiElement.setAttribute("enabled", String.format("%s", profile.getWifi().ordinal()));
-        } else {
-            wifiElement.setAttribute("enabled", String.format("%s", -1));
-        }
-        rootElement.appendChild(wifiElement);
-        Log.i(TAG, String.format("wifi was defined as %s", profile.getWifi()));
+        writeState(serializer, "wifi", "enabled", profile.getWifi());
 
         // Mobile Data
-        Element dataElement = xmlProfile.createElement("mobile_data");
-
-        if (profile.getMobileData() != Profile.state.unchanged) {
-            dataElement.setAttribute("enabled", String.format("%s", profile.getMobileData().ordinal()));
-        } else {
-            dataElement.setAttribute("enabled", String.format("%s", -1));
-        }
-        rootElement.appendChild(dataElement);
-        Log.i(TAG, String.format("mobile-data was defined as %s", profile.getMobileData()));
+        writeState(serializer, "mobile_data", "enabled", profile.getMobileData());
 
         // Bluetooth
-        Element bluetoothElement = xmlProfile.createElement("bluetooth");
-
-        if (profile.getBluetooth() != Profile.state.unchanged) {
-            bluetoothElement.setAttribute("enabled", String.format("%s", profile.getBluetooth().ordinal()));
-        } else {
-            bluetoothElement.setAttribute("enabled", String.format("%s", -1));
-        }
-        rootElement.appendChild(bluetoothElement);
-        Log.i(TAG, String.format("bluetooth was defined as %s", profile.getBluetooth()));
+        writeState(serializer, "bluetooth", "enabled", profile.getBluetooth());
 
         // Display
-        Element displayElement = xmlProfile.createElement("display");
+        serializer.startTag(null, "display");
 
         // Auto Brightness
-        if (profile.getScreenBrightnessAutoMode() != Profile.state.unchanged) {
-            displayElement.setAttribute("auto_mode_enabled", String.format("%d", profile.getScreenBrightnessAutoMode().ordinal()));
-        } else {
-            displayElement.setAttribute("auto_mode_enabled", String.format("%d", -1));
-        }
+        serializer.attribute(null, "auto_mode_enabled", stateValue(profile.getScreenBrightnessAutoMode()));
 
         // Display Time Out
         if (profile.getScreenTimeOut() >= -1) {
-            displayElement.setAttribute("time_out", String.format("%d", profile.getScreenTimeOut()));
+            serializer.attribute(null, "time_out", Integer.toString(profile.getScreenTimeOut()));
         }
-
-        rootElement.appendChild(displayElement);
-        Log.i(TAG, String.format("display changes were defined as follows: autoMode: %s timeOut: %s",
-                        profile.getScreenBrightnessAutoMode(), profile.getScreenTimeOut()));
+        serializer.endTag(null, "display");
 
         // Ringer Mode
-		Element ringerModeElement = xmlProfile.createElement("ringer_mode");
-		ringerModeElement.setAttribute("mode", String.format("%s", profile.getRingerMode()));
-		rootElement.appendChild(ringerModeElement);
-		Log.i(TAG, String.format("vibration was defined as %s", profile.getRingerMode()));
-
-		// Write complete xml file.
-		transformer = transFactory.newTransformer();
-		transformer.setOutputProperties(outputProperties);
-		DOMSource domSource = new DOMSource(xmlProfile.getDocumentElement());
-
-		OutputStream output = new ByteArrayOutputStream();
-		StreamResult result = new StreamResult(output);
-		transformer.transform(domSource, result);
-		String xmlString = output.toString();
-
-		return xmlString;
-	}
-}
\ No newline at end of file
+        serializer.startTag(null, "ringer_mode");
+        serializer.attribute(null, "mode", profile.getRingerMode().name());
+        serializer.endTag(null, "ringer_mode");
+
+        // Write complete xml document.
+        serializer.endTag(null, "resources");
+        serializer.endDocument();
+
+        Log.i(TAG, "Profile written: " + profile.getName());
+    }
+
+    /**
+     * Writes an element with a single enabled / disabled state.
+     *
+     * @param serializer Serializer.
+     * @param tag Name of the element.
+     * @param attribute Name of the attribute holding the state.
+     * @param state The state.
+     *
+     * @throws IOException
+     */
+    private static void writeState(XmlSerializer serializer, String tag, String attribute, Profile.state state) throws IOException {
+
+        serializer.startTag(null, tag);
+        serializer.attribute(null, attribute, stateValue(state));
+        serializer.endTag(null, tag);
+    }
+
+    /**
+     * @return The ordinal of the state, or -1 if unchanged.
+     */
+    private static String stateValue(Profile.state state) {
+        return state != Profile.state.unchanged ? Integer.toString(state.ordinal()) : "-1";
+    }
+}
@@ -2,18 +2,16 @@ package net.davidnorton.securityapp.profile;
 
 import java.io.IOException;
         import java.io.InputStream;
-        import java.lang.reflect.InvocationTargetException;
 
         import org.xmlpull.v1.XmlPullParser;
         import org.xmlpull.v1.XmlPullParserException;
 
-        import android.content.Context;
         import android.util.Log;
         import android.util.Xml;
 
 /**
- * Reads an xml input stream created in XmlCreator and applies it
- * using the Setter class.
+ * Reads an xml input stream created in XmlCreator into a Profile,
+ * which is then applied by the Handler.
  *
  * @author David Norton
  */
@@ -21,48 +19,43 @@ class XmlParser {
 
     private final static String TAG = "XmlParser";
 
-    private final Context context;
-    private final Setter setter = new Setter();
-
     /**
-     *  Initializes the xml parser with the given context.
-     *
-     * @param cont Context.
-     */
-    public XmlParser(Context cont) {
-        context = cont;
-    }
-
-    /**
-     * Sets up the xml parser for the inputstream, then hands over to readAndApplyTags to process it.
+     * Sets up the xml parser for the inputstream, then hands over to readTags to process it.
      *
      * @param in Inputstream to parse.
+     * @param name Name of the Profile.
+     * @return The Profile, with every setting missing or invalid in the file left unchanged.
      *
      * @throws XmlPullParserException
      * @throws IOException
      */
-    public void initializeXmlParser(InputStream in) throws XmlPullParserException, IOException {
+    public Profile initializeXmlParser(InputStream in, String name) throws XmlPullParserException, IOException {
+
+        Profile profile = new Profile(name);
 
         try {
             XmlPullParser parser = Xml.newPullParser();
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
             parser.setInput(in, null);
             parser.nextTag();
-            readAndApplyTags(parser);
+            readTags(parser, profile);
         } finally {
             in.close();
         }
+
+        return profile;
     }
 
     /**
-     * Reads and applies settings using setter methods.
+     * Reads the settings into the Profile.
      *
      * @param parser The parser to read the tags.
+     * @param profile The Profile to read into.
      *
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private void readAndApplyTags(XmlPullParser parser) throws XmlPullParserException, IOException {
+    private void readTags(XmlPullParser parser, Profile profile) throws XmlPullParserException, IOException {
 
         parser.require(XmlPullParser.START_TAG, null, "resources");
 
@@ -79,238 +72,122 @@ class XmlParser {
             // Look for the entry tag.
             switch (name) {
                 case "lockscreen":
-                    setLockscreen(parser);
+                    profile.setLockscreen(readState(parser, "enabled", "Lockscreen"));
                     break;
                 case "wifi":
-                    setWifi(parser);
+                    profile.setWifi(readState(parser, "enabled", "WiFi"));
                     break;
                 case "mobile_data":
-                    setMobileData(parser);
+                    profile.setMobileData(readState(parser, "enabled", "MobileData"));
                     break;
                 case "bluetooth":
-                    setBluetooth(parser);
+                    profile.setBluetooth(readState(parser, "enabled", "Bluetooth"));
                     break;
                 case "display":
-                    setDisplay(parser);
+                    readDisplay(parser, profile);
                     break;
                 case "ringer_mode":
-                    setRingerMode(parser);
+                    readRingerMode(parser, profile);
                     break;
                 default:
                     Log.w("XmlParser", "Skip!");
-                    parser.nextTag();
                     break;
             }
+            parser.nextTag();
         }
     }
 
     /**
-     * Sets Lockscreen state.
-     *
-     * @param parser The parser to read the settings.
-     *
-     * @throws XmlPullParserException
-     * @throws IOException
-     */
-    private void setLockscreen(XmlPullParser parser) throws XmlPullParserException, IOException {
-
-        parser.require(XmlPullParser.START_TAG, null, "lockscreen");
-
-        // If state has changed.
-        if (parser.getAttributeValue(null, "enabled") != null) {
-            // If enabled.
-            if (parser.getAttributeValue(null, "enabled").equals("1")) {
-                setter.setLockscreen(context, true);
-                Log.i(TAG, "Lockscreen enabled.");
-                // If disabled.
-            } else if (parser.getAttributeValue(null, "enabled").equals("0")) {
-                setter.setLockscreen(context, false);
-                Log.i(TAG, "Lockscreen disabled.");
-                // If not valid.
-            } else {
-                Log.e(TAG, "Lockscreen: Invalid Argument!");
-            }
-            // If state unchanged.
-        } else {
-            Log.i(TAG, "Lockscreen: No change.");
-        }
-        parser.nextTag();
-    }
-
-    /**
-     * Sets WiFi state.
-     *
-     * @param parser The parser to read the settings.
-     *
-     * @throws XmlPullParserException
-     * @throws IOException
-     */
-    private void setWifi(XmlPullParser parser) throws XmlPullParserException, IOException {
-
-        parser.require(XmlPullParser.START_TAG, null, "wifi");
-
-        // If state has changed.
-        if (parser.getAttributeValue(null, "enabled") != null) {
-            // If enabled.
-            if (parser.getAttributeValue(null, "enabled").equals("1")) {
-                setter.setWifi(context, true);
-                Log.i(TAG, "WiFi on.");
-            // If disabled.
-            } else if (parser.getAttributeValue(null, "enabled").equals("0")) {
-                setter.setWifi(context, false);
-                Log.i(TAG, "WiFi off.");
-            // If not valid.
-            } else {
-                Log.e(TAG, "WiFi: Invalid Argument!");
-            }
-        // If state unchanged.
-        } else {
-            Log.i(TAG, "WiFi: No change.");
-        }
-        parser.nextTag();
-    }
-
-    /**
-     *  Sets Mobile Data state.
+     * Reads an enabled / disabled state.
      *
      * @param parser The parser to read the settings.
-     * @throws XmlPullParserException
-     * @throws IOException
+     * @param attribute Name of the attribute holding the state.
+     * @param setting Name of the setting, for logging.
+     * @return The state, or unchanged if not set or invalid.
      */
-    private void setMobileData(XmlPullParser parser) throws XmlPullParserException, IOException {
+    private Profile.state readState(XmlPullParser parser, String attribute, String setting) {
 
-        parser.require(XmlPullParser.START_TAG, null, "mobile_data");
+        String value = parser.getAttributeValue(null, attribute);
 
-        // If state has changed.
-        if (parser.getAttributeValue(null, "enabled") != null) {
-            // If enabled.
-            if (parser.getAttributeValue(null, "enabled").equals("1")) {
-                try {
-                    setter.setMobileData(context, true);
-                } catch (IllegalArgumentException | InvocationTargetException | NoSuchMethodException |
-                        IllegalAccessException | NoSuchFieldException | ClassNotFoundException e) {
-                    e.printStackTrace();
-                }
-                Log.i(TAG, "MobileData on.");
-            // If disabled.
-            } else if (parser.getAttributeValue(null, "enabled").equals("0")) {
-                try {
-                    setter.setMobileData(context, false);
-                } catch (IllegalArgumentException | ClassNotFoundException | NoSuchFieldException |
-                        IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-                    Log.i(TAG, String.format(" ERROR: Mobile Data change not supported by Android Version!"));
-                }
-                Log.i(TAG, "MobileData off.");
-            // If not valid.
-            } else {
-                Log.e(TAG, "MobileData: Invalid Argument!");
-            }
         // If state unchanged.
+        if (value == null || value.equals("-1")) {
+            return Profile.state.unchanged;
+        // If enabled.
+        } else if (value.equals("1")) {
+            return Profile.state.enabled;
+        // If disabled.
+        } else if (value.equals("0")) {
+            return Profile.state.disabled;
+        // If not valid.
         } else {
-            Log.i(TAG, "MobileData: No change.");
+            Log.e(TAG, setting + ": Invalid Argument!");
+            return Profile.state.unchanged;
         }
-        parser.nextTag();
     }
 
     /**
-     *  Sets Bluetooth state.
+     *  Reads Display states.
      *
      * @param parser The parser to read the settings.
+     * @param profile The Profile to read into.
      *
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private void setBluetooth(XmlPullParser parser) throws XmlPullParserException, IOException {
-
-        parser.require(XmlPullParser.START_TAG, null, "bluetooth");
-
-        if (parser.getAttributeValue(null, "enabled") != null) {
-            if (parser.getAttributeValue(null, "enabled").equals("1")) {
-                setter.setBluetooth(context, true);
-                Log.i(TAG, "Bluetooth on.");
-            } else if (parser.getAttributeValue(null, "enabled").equals("0")) {
-                setter.setBluetooth(context, false);
-                Log.i(TAG, "Bluetooth off.");
-            } else {
-                Log.e(TAG, "Bluetooth: Invalid Argument!");
-            }
-        } else {
-            Log.i(TAG, "Bluetooth: No change.");
-        }
-        parser.nextTag();
-    }
-
-    /**
-     *  Sets Display states.
-     *
-     * @param parser The parser to read the settings.
-     *
-     * @throws XmlPullParserException
-     * @throws IOException
-     */
-    private void setDisplay(XmlPullParser parser) throws XmlPullParserException, IOException {
+    private void readDisplay(XmlPullParser parser, Profile profile) throws XmlPullParserException, IOException {
 
         parser.require(XmlPullParser.START_TAG, null, "display");
 
         // Auto Brightness
-        if (parser.getAttributeValue(null, "auto_mode_enabled") != null) {
-            if (parser.getAttributeValue(null, "auto_mode_enabled").equals("1")) {
-                setter.setScreenBrightnessMode(context, true);
-                Log.i(TAG, "ScreenBrightnessAutoMode on.");
-            } else if (parser.getAttributeValue(null, "auto_mode_enabled").equals("0")) {
-                setter.setScreenBrightnessMode(context, false);
-                Log.i(TAG, "ScreenBrightnessAutoMode off.");
-            } else {
-                Log.e(TAG, "ScreenBrightnessAutoMode: Invalid Argument!");
-            }
-        } else {
-            Log.i(TAG, "ScreenBrightnessAutoMode: No change.");
-        }
+        profile.setScreenBrightnessAutoMode(readState(parser, "auto_mode_enabled", "ScreenBrightnessAutoMode"));
 
         // Device Display Timeout
-        if (parser.getAttributeValue(null, "time_out") != null) {
-            if (Integer.parseInt(parser.getAttributeValue(null, "time_out")) >= 0
-                    && Integer.parseInt(parser.getAttributeValue(null, "time_out")) <= 6) {
-                setter.setScreenTimeout(context, Integer.parseInt(parser.getAttributeValue(null, "time_out")));
-                Log.i(TAG, "TimeOut: " + parser.getAttributeValue(null, "time_out"));
-            } else {
+        String timeOut = parser.getAttributeValue(null, "time_out");
+        if (timeOut != null) {
+            try {
+                int value = Integer.parseInt(timeOut);
+                if (value >= 0 && value <= 6) {
+                    profile.setScreenTimeOut(value);
+                } else if (value != -1) {
+                    Log.e(TAG, "TimeOut: Invalid Argument!");
+                }
+            } catch (NumberFormatException e) {
                 Log.e(TAG, "TimeOut: Invalid Argument!");
             }
-        } else {
-            Log.i(TAG, "TimeOut: No change.");
         }
-
-        parser.nextTag();
     }
 
     /**
-     * Sets Ringer Mode states.
+     * Reads Ringer Mode states.
      *
      * @param parser The parser to read the settings.
+     * @param profile The Profile to read into.
      *
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private void setRingerMode(XmlPullParser parser) throws XmlPullParserException, IOException {
+    private void readRingerMode(XmlPullParser parser, Profile profile) throws XmlPullParserException, IOException {
 
         parser.require(XmlPullParser.START_TAG, null, "ringer_mode");
 
-        if (parser.getAttributeValue(null, "mode") != null) {
-            if (parser.getAttributeValue(null, "mode").equals("normal")) {
-                setter.setRingerMode(context, Profile.mode.normal);
-                Log.i(TAG, "RingerMode: normal");
-            } else if (parser.getAttributeValue(null, "mode").equals("silent")) {
-                setter.setRingerMode(context, Profile.mode.silent);
-                Log.i(TAG, "RingerMode: silent");
-            } else if (parser.getAttributeValue(null, "mode").equals("vibrate")) {
-                setter.setRingerMode(context, Profile.mode.vibrate);
-                Log.i(TAG, "RingerMode: vibrate");
-            } else {
-                Log.e(TAG, "RingerMode: Invalid Argument!");
+        String mode = parser.getAttributeValue(null, "mode");
+        if (mode != null) {
+            switch (mode) {
+                case "normal":
+                    profile.setRingerMode(Profile.mode.normal);
+                    break;
+                case "silent":
+                    profile.setRingerMode(Profile.mode.silent);
+                    break;
+                case "vibrate":
+                    profile.setRingerMode(Profile.mode.vibrate);
+                    break;
+                case "unchanged":
+                    break;
+                default:
+                    Log.e(TAG, "RingerMode: Invalid Argument!");
+                    break;
             }
-        } else {
-            Log.i(TAG, "RingerMode: No change.");
         }
-        parser.nextTag();
     }
 }
@@ -0,0 +1,397 @@
+package net.davidnorton.securityapp.services;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the Profile and Trigger XML documents in a single database, indexed
+ * by kind and name, instead of one file each in the files directory.
+ *
+ * Every write gives the entity a new version, so the trigger service can find
+ * the triggers changed since it last loaded them with a single query. The
+ * last version given is kept in its own table, so a version is never given
+ * twice, even after the entity holding it is deleted.
+ *
+ * @author David Norton
+ */
+public class EntityStore extends SQLiteOpenHelper {
+
+    private final static String TAG = "EntityStore";
+
+    private static final String DATABASE = "entities.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE = "entities";
+    private static final String KIND = "kind";
+    private static final String NAME = "name";
+    private static final String ENABLED = "enabled";
+    private static final String VERSION = "version";
+    private static final String DATA = "data";
+
+    private static final String COUNTER_TABLE = "counter";
+    private static final String LAST_VERSION = "last_version";
+
+    // Kinds of entities.
+    public static final int PROFILE = 0;
+    public static final int TRIGGER = 1;
+
+    // List filters.
+    public static final int ALL = 0;
+    public static final int ENABLED_ONLY = 1;
+    public static final int DISABLED_ONLY = 2;
+
+    // File name suffixes used before the store, imported when it is created.
+    private static final String PROFILE_SUFFIX = "_profile.xml";
+    private static final String TRIGGER_SUFFIX = "_trigger.xml";
+    private static final String TRIGGER_DISABLED_SUFFIX = "_tri_dis.xml";
+
+    private static EntityStore instance;
+
+    private final Context context;
+
+    // Files imported into a new database, deleted once it is committed.
+    private final List<File> imported = new ArrayList<>();
+
+    private EntityStore(Context context) {
+        super(context, DATABASE, null, DATABASE_VERSION);
+        this.context = context;
+    }
+
+    /**
+     * Gets the store shared by the whole app.
+     *
+     * @param context Context.
+     * @return The store.
+     */
+    public static synchronized EntityStore getInstance(Context context) {
+
+        if (instance == null) {
+            instance = new EntityStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the table and imports the existing Profile and Trigger files.
+     *
+     * @param db Database.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + KIND + " INTEGER NOT NULL, "
+                + NAME + " TEXT NOT NULL, "
+                + ENABLED + " INTEGER NOT NULL, "
+                + VERSION + " INTEGER NOT NULL, "
+                + DATA + " BLOB NOT NULL, "
+                + "PRIMARY KEY (" + KIND + ", " + NAME + "))");
+
+        createCounter(db, importFiles(db));
+    }
+
+    /**
+     * Deletes the imported files once the new database is committed.
+     *
+     * @param db Database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+
+        for (File file : imported) {
+            if (!file.delete()) {
+                Log.e(TAG, "Could not delete imported file: " + file.getName());
+            }
+        }
+        imported.clear();
+    }
+
+    /**
+     * Adds the version counter to databases created before it, continuing
+     * from the highest version stored.
+     *
+     * @param db Database.
+     * @param oldVersion Version of the database.
+     * @param newVersion Version wanted.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+        if (oldVersion < 2) {
+            createCounter(db, DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + VERSION + "), 0) FROM " + TABLE, null));
+        }
+    }
+
+    /**
+     * Creates the table holding the last version given.
+     *
+     * @param db Database.
+     * @param lastVersion Last version given so far.
+     */
+    private static void createCounter(SQLiteDatabase db, long lastVersion) {
+
+        db.execSQL("CREATE TABLE " + COUNTER_TABLE + " (" + LAST_VERSION + " INTEGER NOT NULL)");
+
+        ContentValues values = new ContentValues();
+        values.put(LAST_VERSION, lastVersion);
+        db.insert(COUNTER_TABLE, null, values);
+    }
+
+    /**
+     * Lists the names of the entities of a kind, sorted alphabetically.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param filter ALL, ENABLED_ONLY or DISABLED_ONLY.
+     * @return Names of the entities.
+     */
+    public List<String> list(int kind, int filter) {
+
+        List<String> names = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[] { NAME }, where(filter), args(kind),
+                null, null, NAME + " COLLATE NOCASE");
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Gets the versions of the entities of a kind.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param filter ALL, ENABLED_ONLY or DISABLED_ONLY.
+     * @return Version of each entity, by name.
+     */
+    public Map<String, Long> versions(int kind, int filter) {
+
+        Map<String, Long> versions = new HashMap<>();
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[] { NAME, VERSION }, where(filter), args(kind),
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                versions.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return versions;
+    }
+
+    /**
+     * Gets the version of an entity.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param name Name of the entity.
+     * @param filter ALL, ENABLED_ONLY or DISABLED_ONLY.
+     * @return The version, or -1 if there is no such entity.
+     */
+    public long getVersion(int kind, String name, int filter) {
+
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[] { VERSION }, where(filter) + " AND " + NAME + " = ?",
+                new String[] { String.valueOf(kind), name }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Checks if an entity is enabled.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param name Name of the entity.
+     * @return true if the entity exists and is enabled.
+     */
+    public boolean isEnabled(int kind, String name) {
+        return getVersion(kind, name, ENABLED_ONLY) != -1;
+    }
+
+    /**
+     * Opens the XML document of an entity.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param name Name of the entity.
+     * @return Stream of the document.
+     * @throws FileNotFoundException If there is no such entity.
+     */
+    public InputStream open(int kind, String name) throws FileNotFoundException {
+
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[] { DATA }, KIND + " = ? AND " + NAME + " = ?",
+                new String[] { String.valueOf(kind), name }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new FileNotFoundException(name);
+            }
+            return new ByteArrayInputStream(cursor.getBlob(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the XML document of an entity, keeping its enabled state if
+     * it already exists, otherwise enabling it.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param name Name of the entity.
+     * @param data The document.
+     */
+    public synchronized void put(int kind, String name, byte[] data) {
+
+        SQLiteDatabase db = getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(VERSION, nextVersion(db));
+        values.put(DATA, data);
+
+        if (db.update(TABLE, values, KIND + " = ? AND " + NAME + " = ?", new String[] { String.valueOf(kind), name }) == 0) {
+            values.put(KIND, kind);
+            values.put(NAME, name);
+            values.put(ENABLED, 1);
+            db.insert(TABLE, null, values);
+        }
+    }
+
+    /**
+     * Enables or disables an entity.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param name Name of the entity.
+     * @param enabled Whether it is enabled.
+     */
+    public synchronized void setEnabled(int kind, String name, boolean enabled) {
+
+        SQLiteDatabase db = getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(ENABLED, enabled ? 1 : 0);
+        values.put(VERSION, nextVersion(db));
+        db.update(TABLE, values, KIND + " = ? AND " + NAME + " = ?", new String[] { String.valueOf(kind), name });
+    }
+
+    /**
+     * Deletes an entity.
+     *
+     * @param kind PROFILE or TRIGGER.
+     * @param name Name of the entity.
+     */
+    public synchronized void delete(int kind, String name) {
+        getWritableDatabase().delete(TABLE, KIND + " = ? AND " + NAME + " = ?", new String[] { String.valueOf(kind), name });
+    }
+
+    /**
+     * Gets the next version from the counter, never giving one twice.
+     *
+     * @param db Database.
+     * @return Version.
+     */
+    private static long nextVersion(SQLiteDatabase db) {
+
+        db.execSQL("UPDATE " + COUNTER_TABLE + " SET " + LAST_VERSION + " = " + LAST_VERSION + " + 1");
+        return DatabaseUtils.longForQuery(db, "SELECT " + LAST_VERSION + " FROM " + COUNTER_TABLE, null);
+    }
+
+    private static String where(int filter) {
+
+        switch (filter) {
+            case ENABLED_ONLY:
+                return KIND + " = ? AND " + ENABLED + " = 1";
+            case DISABLED_ONLY:
+                return KIND + " = ? AND " + ENABLED + " = 0";
+            default:
+                return KIND + " = ?";
+        }
+    }
+
+    private static String[] args(int kind) {
+        return new String[] { String.valueOf(kind) };
+    }
+
+    /**
+     * Imports the Profile and Trigger files into a new database.
+     *
+     * @param db Database.
+     * @return Last version given to an imported file, 0 if none.
+     */
+    private long importFiles(SQLiteDatabase db) {
+
+        String[] fileList = context.getFilesDir().list();
+        if (fileList == null) {
+            return 0;
+        }
+
+        long version = 1;
+
+        for (String fileName : fileList) {
+
+            int kind;
+            boolean enabled = true;
+            String suffix;
+
+            if (fileName.endsWith(PROFILE_SUFFIX)) {
+                kind = PROFILE;
+                suffix = PROFILE_SUFFIX;
+            } else if (fileName.endsWith(TRIGGER_SUFFIX)) {
+                kind = TRIGGER;
+                suffix = TRIGGER_SUFFIX;
+            } else if (fileName.endsWith(TRIGGER_DISABLED_SUFFIX)) {
+                kind = TRIGGER;
+                suffix = TRIGGER_DISABLED_SUFFIX;
+                enabled = false;
+            } else {
+                continue;
+            }
+
+            File file = new File(context.getFilesDir(), fileName);
+
+            try {
+                byte[] data = new byte[(int) file.length()];
+                FileInputStream input = new FileInputStream(file);
+                try {
+                    new DataInputStream(input).readFully(data);
+                } finally {
+                    input.close();
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(KIND, kind);
+                values.put(NAME, fileName.substring(0, fileName.length() - suffix.length()));
+                values.put(ENABLED, enabled ? 1 : 0);
+                values.put(VERSION, version++);
+                values.put(DATA, data);
+
+                // Keep the file if another one with the same name was imported first.
+                if (db.insert(TABLE, null, values) != -1) {
+                    imported.add(file);
+                } else {
+                    Log.e(TAG, "Could not import " + fileName + ", kept on disk");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return version - 1;
+    }
+}
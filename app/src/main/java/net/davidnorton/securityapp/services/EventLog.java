@@ -0,0 +1,219 @@
+package net.davidnorton.securityapp.services;
+
+import android.content.Context;
+import android.text.format.DateFormat;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Fixed size in-memory log of trigger, profile and lock screen events.
+ *
+ * Events are kept in preallocated arrays used as a ring buffer, so adding an
+ * event doesn't allocate and the oldest events are overwritten once it is full.
+ *
+ * @author David Norton
+ */
+public final class EventLog {
+
+    // Event types.
+    public static final int TRIGGER_MATCHED = 1;
+    public static final int TRIGGER_REJECTED = 2;
+    public static final int PROFILE_APPLIED = 3;
+    public static final int LOCKED = 4;
+    public static final int UNLOCKED = 5;
+
+    // Unlock reasons.
+    public static final int UNLOCK_PIN = 1;
+    public static final int UNLOCK_NFC = 2;
+
+    public static final int CAPACITY = 512;
+
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] types = new int[CAPACITY];
+    private static final String[] names = new String[CAPACITY];
+    private static final int[] reasons = new int[CAPACITY];
+
+    // Index of the next event to write and number of events stored.
+    private static int next;
+    private static int count;
+
+    // Whether the trigger service also writes its detailed messages to logcat.
+    private static volatile boolean debug;
+
+    private EventLog() {
+    }
+
+    /**
+     * Adds an event, overwriting the oldest one if the log is full.
+     *
+     * @param type Event type.
+     * @param name Name of the trigger or profile, or null.
+     * @param reason For a rejected trigger, the TriggerEngine conditions it no
+     *               longer matches, for an unlock how it was unlocked, otherwise 0.
+     */
+    public static synchronized void add(int type, String name, int reason) {
+
+        times[next] = System.currentTimeMillis();
+        types[next] = type;
+        names[next] = name;
+        reasons[next] = reason;
+
+        next = (next + 1) % CAPACITY;
+        if (count < CAPACITY) {
+            count++;
+        }
+    }
+
+    /**
+     * @return Number of events stored.
+     */
+    public static synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Copies a page of events, newest first, into the given arrays.
+     *
+     * @param from Number of newer events to skip.
+     * @param outTimes Times of the events.
+     * @param outTypes Types of the events.
+     * @param outNames Names of the events.
+     * @param outReasons Reasons of the events.
+     * @return Number of events copied, at most the length of the arrays.
+     */
+    public static synchronized int read(int from, long[] outTimes, int[] outTypes, String[] outNames, int[] outReasons) {
+
+        int copied = 0;
+
+        for (int i = from; i < count && copied < outTimes.length; i++) {
+            int index = (next - 1 - i + CAPACITY) % CAPACITY;
+            outTimes[copied] = times[index];
+            outTypes[copied] = types[index];
+            outNames[copied] = names[index];
+            outReasons[copied] = reasons[index];
+            copied++;
+        }
+        return copied;
+    }
+
+    /**
+     * Removes all events.
+     */
+    public static synchronized void clear() {
+
+        for (int i = 0; i < CAPACITY; i++) {
+            names[i] = null;
+        }
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * Writes all events, oldest first, to a text file in the app's external
+     * files directory, or the internal one if it isn't available.
+     *
+     * @param context Context.
+     * @return The file written.
+     * @throws IOException
+     */
+    public static File flush(Context context) throws IOException {
+
+        int size = size();
+        long[] eventTimes = new long[size];
+        int[] eventTypes = new int[size];
+        String[] eventNames = new String[size];
+        int[] eventReasons = new int[size];
+        size = read(0, eventTimes, eventTypes, eventNames, eventReasons);
+
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+        File file = new File(dir, "activity_log.txt");
+
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            for (int i = size - 1; i >= 0; i--) {
+                writer.println(DateFormat.format("yyyy-MM-dd HH:mm:ss", eventTimes[i]) + " "
+                        + format(eventTypes[i], eventNames[i], eventReasons[i]));
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Describes an event.
+     *
+     * @param type Event type.
+     * @param name Name of the trigger or profile, or null.
+     * @param reason Reason of the event.
+     * @return Description of the event.
+     */
+    public static String format(int type, String name, int reason) {
+
+        switch (type) {
+            case TRIGGER_MATCHED:
+                return "Trigger matched: " + name;
+            case TRIGGER_REJECTED:
+                return "Trigger no longer matching: " + name + " (" + formatConditions(reason) + ")";
+            case PROFILE_APPLIED:
+                return "Profile applied: " + name;
+            case LOCKED:
+                return "Locked";
+            case UNLOCKED:
+                return reason == UNLOCK_NFC ? "Unlocked with NFC" : "Unlocked with PIN";
+            default:
+                return "Unknown event " + type;
+        }
+    }
+
+    /**
+     * Lists the conditions of a TriggerEngine condition mask.
+     *
+     * @param conditions Condition bits.
+     * @return Names of the conditions.
+     */
+    private static String formatConditions(int conditions) {
+
+        StringBuilder sb = new StringBuilder();
+
+        if ((conditions & TriggerEngine.SCHEDULE) != 0) {
+            sb.append("time, ");
+        }
+        if ((conditions & TriggerEngine.HEADPHONES) != 0) {
+            sb.append("headphones, ");
+        }
+        if ((conditions & TriggerEngine.BATTERY_STATE) != 0) {
+            sb.append("battery state, ");
+        }
+        if ((conditions & TriggerEngine.BATTERY_LEVEL) != 0) {
+            sb.append("battery level, ");
+        }
+        if ((conditions & TriggerEngine.GEOFENCE) != 0) {
+            sb.append("location, ");
+        }
+        if (sb.length() > 0) {
+            sb.setLength(sb.length() - 2);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true if the trigger service writes its detailed messages to logcat.
+     */
+    public static boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * @param enabled Whether the trigger service writes its detailed messages to logcat.
+     */
+    public static void setDebug(boolean enabled) {
+        debug = enabled;
+    }
+}
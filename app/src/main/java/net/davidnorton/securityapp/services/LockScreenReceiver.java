@@ -10,13 +10,6 @@ import net.davidnorton.securityapp.R;
 import net.davidnorton.securityapp.lockscreen.LockscreenActivity;
 import net.davidnorton.securityapp.profile.Handler;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-
 /**
  * Enables lock screen when SCREEN_OFF or BOOT_COMPLETED
  * event is detected.
@@ -26,9 +19,6 @@ import java.io.InputStreamReader;
  */
 public class LockScreenReceiver extends BroadcastReceiver {
 
-    private Boolean lockscreen = false;
-    private Context thisContext;
-
     /**
      * Start the lock screen when screen is turned off or device is booted.
      *
@@ -38,14 +28,15 @@ public class LockScreenReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
 
-        thisContext = context;
-        readFromJSON();
+        // Lock screen setting, cached in memory.
+        boolean lockscreen = SettingsRepository.getInstance(context).isLockscreenEnabled();
 
         // If SCREEN_OFF event detected, start lock screen if enabled
         if (lockscreen && intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
 
             Intent lockIntent = new Intent(context, LockscreenActivity.class);
             lockIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_NO_ANIMATION);
+            lockIntent.putExtra(LockscreenActivity.EXTRA_LOCKED_AT, System.nanoTime());
             context.startActivity(lockIntent);
         }
 
@@ -67,25 +58,4 @@ public class LockScreenReceiver extends BroadcastReceiver {
             context.startActivity(lockIntent);
         }
     }
-
-    /**
-     * Read from JSON file to determine if lock screen is enabled.
-     */
-    private void readFromJSON() {
-
-        try {
-            // Get JSON file.
-            BufferedReader bRead = new BufferedReader(new InputStreamReader(thisContext.getApplicationContext().openFileInput("settings.json")));
-            JSONObject root = new JSONObject(bRead.readLine());
-
-            // Access settings.
-            JSONObject settings = root.getJSONObject("settings");
-
-            // Get lock screen value.
-            lockscreen = settings.getBoolean("lockscreen");
-
-        } catch (JSONException | IOException e) {
-            e.printStackTrace();
-        }
-    }
 }
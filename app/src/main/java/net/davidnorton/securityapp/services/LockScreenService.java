@@ -6,6 +6,8 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.IBinder;
 
+import net.davidnorton.securityapp.lockscreen.LockscreenPreloader;
+
 /**
  * Service that manages the lock screen.
  *
@@ -16,6 +18,16 @@ public class LockScreenService extends Service {
 
     private BroadcastReceiver lockscreenReceiver;
 
+    // Whether the service is currently running.
+    private static volatile boolean running;
+
+    /**
+     * @return true if the lock screen service is running.
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
     /**
      * Starts the receiver to detect a SCREEN_OFF event.
      */
@@ -24,10 +36,18 @@ public class LockScreenService extends Service {
 
         super.onCreate();
 
+        // Load the lock screen settings now, so the receiver doesn't read them on SCREEN_OFF.
+        SettingsRepository.getInstance(this).isLockscreenEnabled();
+
+        // Prepare the lock screen ahead of SCREEN_OFF.
+        LockscreenPreloader.start(this);
+
         // Start receiver for SCREEN_OFF event.
         IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
         lockscreenReceiver = new LockScreenReceiver();
         registerReceiver(lockscreenReceiver, filter);
+
+        running = true;
     }
 
     /**
@@ -38,6 +58,9 @@ public class LockScreenService extends Service {
 
         super.onDestroy();
 
+        running = false;
+        LockscreenPreloader.stop();
+
         // When the service is stopped, unregister the receiver.
         try {
             unregisterReceiver(lockscreenReceiver);
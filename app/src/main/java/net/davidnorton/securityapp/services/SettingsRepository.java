@@ -0,0 +1,226 @@
+package net.davidnorton.securityapp.services;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Holds the lock screen settings from settings.json in memory, shared by the
+ * whole app.
+ *
+ * Changes are made to the root object and then saved. Saving is skipped when
+ * the document hasn't changed, otherwise the document is written on a
+ * background thread, where saves made while a write is pending are merged
+ * into one. The file is written to a temporary file and then renamed, so a
+ * crash mid-write leaves the previous settings intact.
+ *
+ * Whether the lock screen is enabled is also kept in a flag, updated on
+ * every save, so the screen off receiver doesn't need to touch the document.
+ *
+ * Changes must be made on the main thread.
+ *
+ * @author David Norton
+ */
+public class SettingsRepository {
+
+    private final static String TAG = "SettingsRepository";
+
+    private static final String FILE = "settings.json";
+
+    private static SettingsRepository instance;
+
+    private final File file;
+    private final File temp;
+    private final Handler handler;
+
+    private JSONObject root;
+
+    // Cached "lockscreen" setting, valid once the root object is read.
+    private volatile boolean loaded;
+    private volatile boolean lockscreen;
+
+    // Last document saved or read, and the document waiting to be written.
+    private String saved;
+    private String pending;
+
+    private SettingsRepository(Context context) {
+
+        file = new File(context.getFilesDir(), FILE);
+        temp = new File(context.getFilesDir(), FILE + ".tmp");
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Gets the repository shared by the whole app.
+     *
+     * @param context Context.
+     * @return The repository.
+     */
+    public static synchronized SettingsRepository getInstance(Context context) {
+
+        if (instance == null) {
+            instance = new SettingsRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the root object of the settings, reading it from the file the first time.
+     *
+     * @return The root object, empty if the file doesn't exist or can't be read.
+     */
+    public synchronized JSONObject getRoot() {
+
+        if (root == null) {
+            root = read();
+            updateFlags();
+            loaded = true;
+        }
+        return root;
+    }
+
+    /**
+     * Checks if the lock screen is enabled, without reading the document
+     * once it is loaded.
+     *
+     * @return The "lockscreen" setting, false if not set.
+     */
+    public boolean isLockscreenEnabled() {
+
+        if (!loaded) {
+            getRoot();
+        }
+        return lockscreen;
+    }
+
+    /**
+     * Saves the settings in the background if they changed since they were
+     * last saved.
+     */
+    public void save() {
+
+        synchronized (this) {
+            String json = getRoot().toString();
+            updateFlags();
+
+            // Nothing changed.
+            if (json.equals(saved)) {
+                return;
+            }
+
+            saved = json;
+            pending = json;
+        }
+
+        handler.removeCallbacks(write);
+        handler.post(write);
+    }
+
+    /**
+     * Writes the pending document, if any.
+     */
+    private final Runnable write = new Runnable() {
+        @Override
+        public void run() {
+
+            String json;
+            synchronized (SettingsRepository.this) {
+                json = pending;
+                pending = null;
+            }
+
+            if (json != null && !writeFile(json)) {
+                // Write again on the next save.
+                synchronized (SettingsRepository.this) {
+                    saved = null;
+                }
+            }
+        }
+    };
+
+    /**
+     * Updates the cached settings from the root object.
+     */
+    private void updateFlags() {
+
+        JSONObject settings = root.optJSONObject("settings");
+        lockscreen = settings != null && settings.optBoolean("lockscreen", false);
+    }
+
+    /**
+     * Reads the root object from the file.
+     *
+     * @return The root object, empty if the file doesn't exist or can't be read.
+     */
+    private JSONObject read() {
+
+        try {
+            BufferedReader bRead = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+            try {
+                String json = bRead.readLine();
+                if (json == null) {
+                    return new JSONObject();
+                }
+                JSONObject object = new JSONObject(json);
+                saved = object.toString();
+                return object;
+            } finally {
+                bRead.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No settings yet");
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
+        }
+        return new JSONObject();
+    }
+
+    /**
+     * Writes a document to the temporary file, then replaces the settings file with it.
+     *
+     * @param json The document.
+     * @return true if written.
+     */
+    private boolean writeFile(String json) {
+
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                Writer bWrite = new OutputStreamWriter(output);
+                bWrite.write(json);
+                bWrite.flush();
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "Could not replace settings");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.davidnorton.securityapp.services;
+
+/**
+ * An immutable change to the state the triggers are evaluated against,
+ * posted to the TriggerEvaluator.
+ *
+ * @author David Norton
+ */
+final class StateDelta {
+
+    // Delta types.
+    static final int TIME = 1;
+    static final int HEADPHONES = 1 << 1;
+    static final int BATTERY_STATE = 1 << 2;
+    static final int BATTERY_LEVEL = 1 << 3;
+    static final int GEOFENCES = 1 << 4;
+    static final int REFRESH = 1 << 5;
+
+    final int type;
+    final int intValue;
+    final boolean booleanValue;
+    final String[] ids;
+
+    private StateDelta(int type, int intValue, boolean booleanValue, String[] ids) {
+        this.type = type;
+        this.intValue = intValue;
+        this.booleanValue = booleanValue;
+        this.ids = ids;
+    }
+
+    /**
+     * @param minuteOfWeek Current minute of the week, starting Monday 00:00.
+     * @return Time delta.
+     */
+    static StateDelta time(int minuteOfWeek) {
+        return new StateDelta(TIME, minuteOfWeek, false, null);
+    }
+
+    /**
+     * @param plugged Headphones plugged in.
+     * @return Headphone delta.
+     */
+    static StateDelta headphones(boolean plugged) {
+        return new StateDelta(HEADPHONES, 0, plugged, null);
+    }
+
+    /**
+     * @param charging Battery charging.
+     * @return Battery state delta.
+     */
+    static StateDelta batteryCharging(boolean charging) {
+        return new StateDelta(BATTERY_STATE, 0, charging, null);
+    }
+
+    /**
+     * @param level Battery level in percent.
+     * @return Battery level delta.
+     */
+    static StateDelta batteryLevel(int level) {
+        return new StateDelta(BATTERY_LEVEL, level, false, null);
+    }
+
+    /**
+     * @param entered true if the geo-fences were entered, false if left.
+     * @param ids IDs of the geo-fences entered or left.
+     * @return Geo-fence delta.
+     */
+    static StateDelta geofenceTransition(boolean entered, String[] ids) {
+        return new StateDelta(GEOFENCES, 0, entered, ids.clone());
+    }
+
+    /**
+     * @param names Names of the triggers that changed, or null to scan for changed trigger files.
+     * @return Delta requesting the triggers to be reloaded.
+     */
+    static StateDelta refresh(String[] names) {
+        return new StateDelta(REFRESH, 0, false, names == null ? null : names.clone());
+    }
+}
@@ -9,13 +9,19 @@ import android.util.Log;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 
+import net.davidnorton.securityapp.trigger.GeofenceRegistrar;
+import net.davidnorton.securityapp.trigger.SimpleGeofence;
+import net.davidnorton.securityapp.trigger.TriggerSchedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 
 
 /**
- * Receives broadcasts and sets the variables in the trigger service.
- * 
+ * Receives broadcasts and posts the changes to the trigger evaluator.
+ *
  * @author David Norton
  *
  */
@@ -23,31 +29,38 @@ public class TriggerBroadcastReceiver extends BroadcastReceiver {
 
     private final static String TAG = "TriggerReceiver";
 
-    private final TriggerService triggerservice;
-	
-	TriggerBroadcastReceiver(TriggerService service){
-		triggerservice = service;
+    private final TriggerEvaluator evaluator;
+
+	TriggerBroadcastReceiver(TriggerEvaluator evaluator){
+		this.evaluator = evaluator;
 	}
 
     /**
-     * Receives the broadcasts registered in the constructor and sets the
-     * information in the TriggerService.
+     * Receives the broadcasts registered in the TriggerService and posts
+     * the changes to the evaluator.
      *
      * @param context Context.
      * @param intent Intent.
      */
 	@Override
 	public void onReceive(Context context, Intent intent) {
-		
-        Log.i(TAG, "Broadcast received: " + intent.getAction());
 
-        // Set time.
-        if (intent.getAction().equals(Intent.ACTION_TIME_TICK)) {
+        long start = System.nanoTime();
+
+        if (EventLog.isDebug()) {
+            Log.i(TAG, "Broadcast received: " + intent.getAction());
+        }
+
+        // Set time and day when a time boundary is reached or the clock changed.
+        if (intent.getAction().equals(TriggerService.ACTION_TIME_BOUNDARY)
+                || intent.getAction().equals(Intent.ACTION_TIME_CHANGED)
+                || intent.getAction().equals(Intent.ACTION_TIMEZONE_CHANGED)) {
 
-            int h = Integer.parseInt(String.valueOf(Calendar.getInstance().get(Calendar.HOUR_OF_DAY)));
-            int m = Integer.parseInt(String.valueOf(Calendar.getInstance().get(Calendar.MINUTE)));
-            triggerservice.setTime(h, m);
-            Log.i(TAG, "Time: " + h + ":" + m);
+            Calendar cal = Calendar.getInstance();
+            evaluator.post(StateDelta.time(TriggerSchedule.minuteOfWeek(cal)));
+            if (EventLog.isDebug()) {
+                Log.i(TAG, "Time: " + cal.get(Calendar.HOUR_OF_DAY) + ":" + cal.get(Calendar.MINUTE));
+            }
         }
 
 		// Set headphones state.
@@ -57,83 +70,146 @@ public class TriggerBroadcastReceiver extends BroadcastReceiver {
 
             switch (state) {
             case 0:
-                triggerservice.setHeadphones(false);
-                Log.i(TAG, "Headset unplugged");
+                evaluator.post(StateDelta.headphones(false));
+                if (EventLog.isDebug()) {
+                    Log.i(TAG, "Headset unplugged");
+                }
                 break;
             case 1:
-                triggerservice.setHeadphones(true);
-                Log.i(TAG, "Headset plugged");
+                evaluator.post(StateDelta.headphones(true));
+                if (EventLog.isDebug()) {
+                    Log.i(TAG, "Headset plugged");
+                }
                 break;
             }
         }
 
         // Set battery charging state.
 		if(intent.getAction().equals(Intent.ACTION_POWER_CONNECTED)){
-        	triggerservice.setBatteryCharging(true);
+        	evaluator.post(StateDelta.batteryCharging(true));
         } else if (intent.getAction().equals(Intent.ACTION_POWER_DISCONNECTED)){
-        	triggerservice.setBatteryCharging(false);
+        	evaluator.post(StateDelta.batteryCharging(false));
         }
 
-        // Set battery level state.
+        // Set battery level state, dropped by the evaluator unless it crosses a trigger threshold.
 		if(intent.getAction().equals(Intent.ACTION_BATTERY_CHANGED)){
-
-			int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-			int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-			float batteryLevel = level / (float)scale;
-
-			batteryLevel = batteryLevel * 100;
-			triggerservice.setBatteryLevel((int)batteryLevel);
+			evaluator.post(StateDelta.batteryLevel(getBatteryLevel(intent)));
 		}
 
-        // Refresh list of triggers.
+        // Refresh the changed triggers, or scan for them if not named.
 		if(intent.getAction().equals("net.davidnorton.securityapp.trigger.refresh")){
-			triggerservice.refreshTriggers();
+			evaluator.post(StateDelta.refresh(intent.getStringArrayExtra(TriggerService.EXTRA_TRIGGER_NAMES)));
 		}
 
-        // Clear currently triggered geo-fences.
+        // Leave the geo-fences of edited triggers, they are entered again once registered.
 		if(intent.getAction().equals("net.davidnorton.securityapp.trigger.clearGeofences")){
-			triggerservice.clearGeofences();
+			String[] ids = intent.getStringArrayExtra(GeofenceRegistrar.EXTRA_GEOFENCE_IDS);
+			if (ids != null) {
+				evaluator.post(StateDelta.geofenceTransition(false, ids));
+				if (EventLog.isDebug()) {
+					Log.i(TAG, "geofences cleared: " + Arrays.toString(ids));
+				}
+			}
 		}
 
         // Set location change.
-		if(intent.getAction().equals("net.davidnorton.securityapp.trigger.location_change")){
+		if(intent.getAction().equals(GeofenceRegistrar.ACTION_LOCATION_CHANGE)){
 
-            Log.i(TAG, "Location change detected");
+            if (EventLog.isDebug()) {
+                Log.i(TAG, "Location change detected");
+            }
 
-            GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
+            int transition;
+            String[] triggerIds;
 
-            // Check and log errors.
-            if (geofencingEvent.hasError()) {
+            // Geo-fences tracked on the device.
+            if (intent.hasExtra(GeofenceRegistrar.EXTRA_TRANSITION)) {
 
-                int errorCode = geofencingEvent.getErrorCode();
-                Log.e("ReceiveTransition", "Location Services error: " + Integer.toString(errorCode));
+                transition = intent.getIntExtra(GeofenceRegistrar.EXTRA_TRANSITION, -1);
+                triggerIds = intent.getStringArrayExtra(GeofenceRegistrar.EXTRA_GEOFENCE_IDS);
 
-            // If no errors, get transition type and ID/s of the geo-fence/s that triggered the transition.
+            // Geo-fences registered with location services.
             } else {
 
-                // Get transition.
-                int transition = geofencingEvent.getGeofenceTransition();
+                GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
+
+                // Check and log errors.
+                if (geofencingEvent.hasError()) {
+
+                    int errorCode = geofencingEvent.getErrorCode();
+                    Log.e("ReceiveTransition", "Location Services error: " + Integer.toString(errorCode));
+                    TriggerMetrics.dispatchTime.recordSince(start);
+                    return;
+                }
+
+                // If no errors, get transition type and ID/s of the geo-fence/s that triggered the transition.
+                transition = geofencingEvent.getGeofenceTransition();
+
+                // Polygon geo-fences are only reported once the device is inside the polygon itself.
+                GeofenceRegistrar registrar = GeofenceRegistrar.getInstance(context);
+                List<String> ids = new ArrayList<>();
+                List<Geofence> triggerList = geofencingEvent.getTriggeringGeofences();
+                if (triggerList != null) {
+                    for (Geofence geofence : triggerList) {
+                        if (!registrar.refine(geofence.getRequestId(), transition, geofencingEvent.getTriggeringLocation())) {
+                            ids.add(geofence.getRequestId());
+                        }
+                    }
+                }
+
+                if (ids.isEmpty()) {
+                    TriggerMetrics.dispatchTime.recordSince(start);
+                    return;
+                }
+                triggerIds = ids.toArray(new String[ids.size()]);
+            }
 
-                // If transition is an enter or exit event.
-                if ((transition == Geofence.GEOFENCE_TRANSITION_ENTER) || (transition == Geofence.GEOFENCE_TRANSITION_EXIT)) {
+            // If transition is an enter or exit event.
+            if ((transition == Geofence.GEOFENCE_TRANSITION_ENTER) || (transition == Geofence.GEOFENCE_TRANSITION_EXIT)) {
 
-                    // Get list of geo-fence IDs that were triggered.
-                    List<Geofence> triggerList = geofencingEvent.getTriggeringGeofences();
-                    String[] triggerIds = new String[triggerList.size()];
+                boolean entered = transition == Geofence.GEOFENCE_TRANSITION_ENTER;
 
-                    // Store each ID.
-                    for (int i = 0; i < triggerIds.length; i++) {
-                        triggerIds[i] = triggerList.get(i).getRequestId();
-                        Log.i(TAG, "matching geofence: " + triggerIds[i]);
+                // Store the area of each ID, entering or leaving only changes that area.
+                for (int i = 0; i < triggerIds.length; i++) {
+                    triggerIds[i] = SimpleGeofence.getAreaId(triggerIds[i]);
+                    if (EventLog.isDebug()) {
+                        Log.i(TAG, (entered ? "entered geofence: " : "left geofence: ") + triggerIds[i]);
                     }
+                }
 
-                    triggerservice.setGeofences(triggerIds);
+                evaluator.post(StateDelta.geofenceTransition(entered, triggerIds));
 
-				// An invalid transition occurred.
-				} else {
-					Log.e("ReceiveTransition", "Geofence transition error: " + Integer.toString(transition));
-				}
-			}
+            // An invalid transition occurred.
+            } else {
+                Log.e("ReceiveTransition", "Geofence transition error: " + Integer.toString(transition));
+            }
 		}
+
+        TriggerMetrics.dispatchTime.recordSince(start);
 	}
+
+    /**
+     * Gets the battery charging state from a battery changed intent.
+     *
+     * @param intent Battery changed intent.
+     * @return true if charging.
+     */
+    static boolean isCharging(Intent intent) {
+        return intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1) == BatteryManager.BATTERY_STATUS_CHARGING;
+    }
+
+    /**
+     * Gets the battery level from a battery changed intent.
+     *
+     * @param intent Battery changed intent.
+     * @return Battery level in percent.
+     */
+    static int getBatteryLevel(Intent intent) {
+
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        float batteryLevel = level / (float)scale;
+
+        return (int)(batteryLevel * 100);
+    }
 }
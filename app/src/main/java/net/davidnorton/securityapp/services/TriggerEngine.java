@@ -0,0 +1,511 @@
+package net.davidnorton.securityapp.services;
+
+import android.util.Log;
+
+import net.davidnorton.securityapp.trigger.Trigger;
+import net.davidnorton.securityapp.trigger.TriggerSchedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Evaluates triggers against the current device state.
+ *
+ * Each trigger keeps a bit mask of the conditions it currently matches. The
+ * triggers are indexed by the conditions they depend on, so a change in one
+ * input only re-evaluates the triggers listening for it.
+ *
+ * @author David Norton
+ */
+public class TriggerEngine {
+
+    private final static String TAG = "TriggerEngine";
+
+    // Condition bits.
+    static final int SCHEDULE = 1;
+    static final int HEADPHONES = 1 << 1;
+    static final int BATTERY_STATE = 1 << 2;
+    static final int BATTERY_LEVEL = 1 << 3;
+    static final int GEOFENCE = 1 << 4;
+    private static final int ALL = SCHEDULE | HEADPHONES | BATTERY_STATE | BATTERY_LEVEL | GEOFENCE;
+
+    // Current state.
+    private int minuteOfWeek;
+    private boolean headphones;
+    private boolean batteryCharging;
+    private int batteryLevel;
+    private final Set<String> geofences = new HashSet<>();
+
+    // Indexes of triggers by the conditions they depend on.
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> entriesByName = new HashMap<>();
+    private final List<Entry> scheduleIndex = new ArrayList<>();
+    private final List<Entry> headphonesIndex = new ArrayList<>();
+    private final List<Entry> batteryStateIndex = new ArrayList<>();
+    private final List<Entry> batteryLevelIndex = new ArrayList<>();
+    private final Map<String, List<Entry>> geofenceIndex = new HashMap<>();
+
+    // Minutes of the week at which any trigger's schedule starts or stops matching.
+    private final long[] boundaries = TriggerSchedule.newBitmap();
+
+    // Sorted battery levels at which any trigger's battery level condition can change.
+    private int[] batteryThresholds = new int[0];
+
+    // Triggers currently matching every condition.
+    private final Set<Trigger> matching = new LinkedHashSet<>();
+
+    /**
+     * A trigger and the conditions it currently matches.
+     */
+    private static class Entry {
+
+        final Trigger trigger;
+        int mask;
+
+        Entry(Trigger trigger) {
+            this.trigger = trigger;
+        }
+    }
+
+    /**
+     * Replaces the triggers and evaluates all of them against the current state.
+     *
+     * @param triggers Triggers to evaluate.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean setTriggers(Collection<Trigger> triggers) {
+
+        Set<Trigger> previous = new HashSet<>(matching);
+
+        entries.clear();
+        entriesByName.clear();
+        scheduleIndex.clear();
+        headphonesIndex.clear();
+        batteryStateIndex.clear();
+        batteryLevelIndex.clear();
+        geofenceIndex.clear();
+        matching.clear();
+        Arrays.fill(boundaries, 0);
+
+        for (Trigger trigger : triggers) {
+            add(trigger);
+        }
+
+        indexBatteryThresholds();
+
+        if (EventLog.isDebug()) {
+            Log.i(TAG, "Indexed " + entries.size() + " triggers, " + matching.size() + " matching");
+        }
+        return !previous.equals(matching);
+    }
+
+    /**
+     * Adds a trigger, replacing the trigger with the same name, and evaluates it
+     * against the current state. The other triggers are left untouched.
+     *
+     * @param trigger Trigger to add.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean putTrigger(Trigger trigger) {
+
+        boolean changed = remove(trigger.getName());
+        changed |= add(trigger);
+        indexBatteryThresholds();
+        return changed;
+    }
+
+    /**
+     * Removes the trigger with the given name.
+     *
+     * @param name Name of the trigger.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean removeTrigger(String name) {
+
+        boolean changed = remove(name);
+        indexBatteryThresholds();
+        return changed;
+    }
+
+    /**
+     * Indexes a trigger and evaluates all of its conditions.
+     *
+     * @param trigger Trigger to add.
+     * @return true if the trigger matches.
+     */
+    private boolean add(Trigger trigger) {
+
+        Entry entry = new Entry(trigger);
+        index(entry);
+        entries.add(entry);
+        entriesByName.put(trigger.getName(), entry);
+        return evaluate(entry, ALL);
+    }
+
+    /**
+     * Removes a trigger from every index and the matching set.
+     *
+     * @param name Name of the trigger.
+     * @return true if the trigger was matching.
+     */
+    private boolean remove(String name) {
+
+        Entry entry = entriesByName.remove(name);
+        if (entry == null) {
+            return false;
+        }
+
+        Trigger trigger = entry.trigger;
+        entries.remove(entry);
+
+        if (trigger.getSchedule() != null) {
+            scheduleIndex.remove(entry);
+            // Boundaries of several schedules can't be separated, so rebuild them.
+            Arrays.fill(boundaries, 0);
+            for (int i = 0; i < scheduleIndex.size(); i++) {
+                TriggerSchedule.addBoundaries(scheduleIndex.get(i).trigger.getSchedule(), boundaries);
+            }
+        }
+        headphonesIndex.remove(entry);
+        batteryStateIndex.remove(entry);
+        batteryLevelIndex.remove(entry);
+        if (trigger.getGeofence() != null) {
+            List<Entry> list = geofenceIndex.get(trigger.getGeofence());
+            list.remove(entry);
+            if (list.isEmpty()) {
+                geofenceIndex.remove(trigger.getGeofence());
+            }
+        }
+
+        return matching.remove(trigger);
+    }
+
+    /**
+     * Adds the entry to the index of each condition its trigger depends on.
+     *
+     * @param entry Entry to index.
+     */
+    private void index(Entry entry) {
+
+        Trigger trigger = entry.trigger;
+
+        if (trigger.getSchedule() != null) {
+            scheduleIndex.add(entry);
+            TriggerSchedule.addBoundaries(trigger.getSchedule(), boundaries);
+        }
+        if (trigger.getHeadphones() != Trigger.listen_state.ignore) {
+            headphonesIndex.add(entry);
+        }
+        if (trigger.getBatteryState() != Trigger.listen_state.ignore) {
+            batteryStateIndex.add(entry);
+        }
+        if (trigger.getBatteryStartLevel() != -1 || trigger.getBatteryEndLevel() != -1) {
+            batteryLevelIndex.add(entry);
+        }
+        if (trigger.getGeofence() != null) {
+            List<Entry> list = geofenceIndex.get(trigger.getGeofence());
+            if (list == null) {
+                list = new ArrayList<>();
+                geofenceIndex.put(trigger.getGeofence(), list);
+            }
+            list.add(entry);
+        }
+    }
+
+    /**
+     * Collects the battery levels at which a battery level condition can start or
+     * stop matching. A trigger with only a start level matches that level exactly,
+     * a trigger with both levels matches the levels strictly between them. With
+     * hysteresis, the widened range at which a matching trigger stops matching is added too.
+     */
+    private void indexBatteryThresholds() {
+
+        Set<Integer> thresholds = new TreeSet<>();
+
+        for (int i = 0; i < batteryLevelIndex.size(); i++) {
+            Trigger trigger = batteryLevelIndex.get(i).trigger;
+            int hysteresis = trigger.getBatteryHysteresis();
+            if (trigger.getBatteryEndLevel() == -1) {
+                thresholds.add(trigger.getBatteryStartLevel());
+                thresholds.add(trigger.getBatteryStartLevel() + 1);
+                thresholds.add(trigger.getBatteryStartLevel() - hysteresis);
+                thresholds.add(trigger.getBatteryStartLevel() + hysteresis + 1);
+            } else {
+                thresholds.add(trigger.getBatteryStartLevel() + 1);
+                thresholds.add(trigger.getBatteryEndLevel());
+                thresholds.add(trigger.getBatteryStartLevel() - hysteresis + 1);
+                thresholds.add(trigger.getBatteryEndLevel() + hysteresis);
+            }
+        }
+
+        batteryThresholds = new int[thresholds.size()];
+        int i = 0;
+        for (int threshold : thresholds) {
+            batteryThresholds[i++] = threshold;
+        }
+    }
+
+    /**
+     * Re-evaluates the given conditions of an entry and updates the matching set.
+     *
+     * @param entry Entry to evaluate.
+     * @param conditions Condition bits to re-evaluate.
+     * @return true if the entry joined or left the matching set.
+     */
+    private boolean evaluate(Entry entry, int conditions) {
+
+        Trigger trigger = entry.trigger;
+        int mask = entry.mask & ~conditions;
+
+        if ((conditions & SCHEDULE) != 0 && TriggerSchedule.contains(trigger.getSchedule(), minuteOfWeek)) {
+            mask |= SCHEDULE;
+        }
+        if ((conditions & HEADPHONES) != 0 && matchesHeadphones(trigger)) {
+            mask |= HEADPHONES;
+        }
+        if ((conditions & BATTERY_STATE) != 0 && matchesBatteryState(trigger)) {
+            mask |= BATTERY_STATE;
+        }
+        if ((conditions & BATTERY_LEVEL) != 0 && matchesBatteryLevel(trigger, (entry.mask & BATTERY_LEVEL) != 0)) {
+            mask |= BATTERY_LEVEL;
+        }
+        if ((conditions & GEOFENCE) != 0 && matchesGeofence(trigger)) {
+            mask |= GEOFENCE;
+        }
+
+        boolean wasMatching = entry.mask == ALL;
+        entry.mask = mask;
+
+        if (mask == ALL && !wasMatching) {
+            matching.add(trigger);
+            EventLog.add(EventLog.TRIGGER_MATCHED, trigger.getName(), 0);
+            TriggerMetrics.matches.increment();
+            return true;
+        } else if (mask != ALL && wasMatching) {
+            matching.remove(trigger);
+            // Record the conditions no longer matching.
+            EventLog.add(EventLog.TRIGGER_REJECTED, trigger.getName(), ALL & ~mask);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Re-evaluates a condition for every entry in its index.
+     *
+     * @param index Entries depending on the condition.
+     * @param condition Condition bit.
+     * @return true if the set of matching triggers changed.
+     */
+    private boolean evaluate(List<Entry> index, int condition) {
+
+        boolean changed = false;
+
+        for (int i = 0; i < index.size(); i++) {
+            changed |= evaluate(index.get(i), condition);
+        }
+        return changed;
+    }
+
+    /**
+     * @return The triggers currently matching every condition.
+     */
+    public Set<Trigger> getMatchingTriggers() {
+        return matching;
+    }
+
+    /**
+     * @return The matching trigger with the highest priority, or null if none match.
+     */
+    public Trigger getHighestPriorityTrigger() {
+
+        Trigger highest = null;
+
+        for (Trigger trigger : matching) {
+            if (highest == null || trigger.getPriority() > highest.getPriority()) {
+                highest = trigger;
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @return The next minute of the week at which a trigger's schedule starts or
+     * stops matching, or -1 if no trigger depends on the time.
+     */
+    public int getNextBoundary() {
+        return TriggerSchedule.nextSetMinute(boundaries, minuteOfWeek);
+    }
+
+    /**
+     * @return Sorted battery levels at which a trigger's battery level condition can
+     * change. Levels between two consecutive thresholds match the same triggers.
+     */
+    public int[] getBatteryThresholds() {
+        return batteryThresholds;
+    }
+
+    /**
+     * @return Number of triggers loaded.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sets the time and day.
+     *
+     * @param minute Current minute of the week, starting Monday 00:00.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean setTime(int minute) {
+
+        if (minute == minuteOfWeek) {
+            return false;
+        }
+        minuteOfWeek = minute;
+        return evaluate(scheduleIndex, SCHEDULE);
+    }
+
+    /**
+     * Sets the headphone state.
+     *
+     * @param plugged Headphones plugged in.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean setHeadphones(boolean plugged) {
+
+        if (plugged == headphones) {
+            return false;
+        }
+        headphones = plugged;
+        return evaluate(headphonesIndex, HEADPHONES);
+    }
+
+    /**
+     * Sets the battery charging state.
+     *
+     * @param charging Battery charging.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean setBatteryCharging(boolean charging) {
+
+        if (charging == batteryCharging) {
+            return false;
+        }
+        batteryCharging = charging;
+        return evaluate(batteryStateIndex, BATTERY_STATE);
+    }
+
+    /**
+     * Sets the battery level.
+     *
+     * @param level Battery level in percent.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean setBatteryLevel(int level) {
+
+        if (level == batteryLevel) {
+            return false;
+        }
+        batteryLevel = level;
+        return evaluate(batteryLevelIndex, BATTERY_LEVEL);
+    }
+
+    /**
+     * Records entering or leaving a geo-fence, leaving the other geo-fences
+     * the device is inside untouched. Only triggers listening for that
+     * geo-fence are re-evaluated.
+     *
+     * @param id ID of the geo-fence.
+     * @param inside true if entered, false if left.
+     * @return true if the set of matching triggers changed.
+     */
+    public boolean setInsideGeofence(String id, boolean inside) {
+
+        // Already inside or outside.
+        if (inside ? !geofences.add(id) : !geofences.remove(id)) {
+            return false;
+        }
+
+        List<Entry> index = geofenceIndex.get(id);
+        return index != null && evaluate(index, GEOFENCE);
+    }
+
+    /**
+     * Compares the headphone state set in a trigger with the current state.
+     *
+     * @param trigger Trigger comparing to.
+     * @return true if match, false otherwise.
+     */
+    private boolean matchesHeadphones(Trigger trigger) {
+
+        switch (trigger.getHeadphones()) {
+            case listen_on:
+                return headphones;
+            case listen_off:
+                return !headphones;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Compares the battery state set in a trigger with the current state.
+     *
+     * @param trigger Trigger comparing to.
+     * @return true if match, false otherwise.
+     */
+    private boolean matchesBatteryState(Trigger trigger) {
+
+        switch (trigger.getBatteryState()) {
+            case listen_on:
+                return batteryCharging;
+            case listen_off:
+                return !batteryCharging;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Compares the battery level set in a trigger with the current level.
+     * If the trigger has only the battery start level defined, it needs to match the value exactly.
+     * While the level matches, the range is widened by the trigger's hysteresis, so a level
+     * hovering around a threshold doesn't keep switching the trigger.
+     *
+     * @param trigger Trigger comparing to.
+     * @param wasMatching Whether the battery level currently matches.
+     * @return true if match, false otherwise.
+     */
+    private boolean matchesBatteryLevel(Trigger trigger, boolean wasMatching) {
+
+        int hysteresis = wasMatching ? trigger.getBatteryHysteresis() : 0;
+
+        if (trigger.getBatteryStartLevel() == -1 && trigger.getBatteryEndLevel() == -1) {
+            return true;
+        } else if (trigger.getBatteryEndLevel() == -1) {
+            return Math.abs(trigger.getBatteryStartLevel() - batteryLevel) <= hysteresis;
+        }
+        return trigger.getBatteryStartLevel() - hysteresis < batteryLevel
+                && trigger.getBatteryEndLevel() + hysteresis > batteryLevel;
+    }
+
+    /**
+     * Compares the geo-fence set in a trigger with the geo-fences currently entered.
+     *
+     * @param trigger Trigger comparing to.
+     * @return true if match, false otherwise.
+     */
+    private boolean matchesGeofence(Trigger trigger) {
+        return trigger.getGeofence() == null || geofences.contains(trigger.getGeofence());
+    }
+}
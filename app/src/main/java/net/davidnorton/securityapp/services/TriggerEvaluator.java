@@ -0,0 +1,314 @@
+package net.davidnorton.securityapp.services;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.davidnorton.securityapp.trigger.Trigger;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies state changes to the TriggerEngine on a dedicated worker thread.
+ *
+ * Deltas posted while an evaluation is pending are merged into it, so a burst
+ * of broadcasts results in a single evaluation with the latest state. A new
+ * winning trigger only takes effect once it has won for the minimum dwell time.
+ *
+ * @author David Norton
+ */
+class TriggerEvaluator {
+
+    private final static String TAG = "TriggerEvaluator";
+
+    private final TriggerService service;
+    private final TriggerEngine engine = new TriggerEngine();
+    private final TriggerLoader loader;
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    // Pending state, guarded by this.
+    private int dirty;
+    private int minuteOfWeek;
+    private boolean headphones;
+    private boolean batteryCharging;
+    private int batteryLevel;
+    private Map<String, Boolean> geofenceChanges = new LinkedHashMap<>();
+    private boolean scanTriggers;
+    private Set<String> changedTriggers = new HashSet<>();
+
+    // Whether the snapshot was restored, used only by the worker thread.
+    private boolean restored;
+
+    // Winning trigger applied or waiting for the minimum dwell time, used only by the worker thread.
+    private Trigger winner;
+    private boolean decided;
+
+    // Battery thresholds of the loaded triggers, published by the worker thread.
+    private volatile int[] batteryThresholds = new int[0];
+
+    // Set once the service is destroyed, results are no longer applied.
+    private volatile boolean quitting;
+
+    /**
+     * Starts the worker thread.
+     *
+     * @param service Service that applies profiles.
+     */
+    TriggerEvaluator(TriggerService service) {
+
+        this.service = service;
+        loader = new TriggerLoader(service);
+
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Merges a delta into the pending state and schedules an evaluation if none is pending.
+     *
+     * @param delta State change.
+     */
+    synchronized void post(StateDelta delta) {
+
+        switch (delta.type) {
+            case StateDelta.TIME:
+                minuteOfWeek = delta.intValue;
+                break;
+            case StateDelta.HEADPHONES:
+                headphones = delta.booleanValue;
+                break;
+            case StateDelta.BATTERY_STATE:
+                batteryCharging = delta.booleanValue;
+                break;
+            case StateDelta.BATTERY_LEVEL:
+                boolean crossed = getBatteryBand(delta.intValue) != getBatteryBand(batteryLevel);
+                batteryLevel = delta.intValue;
+                // Ignore changes that don't cross a threshold used by any trigger.
+                if (!crossed) {
+                    return;
+                }
+                break;
+            case StateDelta.GEOFENCES:
+                // The latest transition of each geo-fence wins.
+                for (String id : delta.ids) {
+                    geofenceChanges.put(id, delta.booleanValue);
+                }
+                break;
+            case StateDelta.REFRESH:
+                if (delta.ids == null) {
+                    scanTriggers = true;
+                } else {
+                    changedTriggers.addAll(Arrays.asList(delta.ids));
+                }
+                break;
+        }
+
+        // Schedule an evaluation if this is the first pending change.
+        if (dirty == 0) {
+            handler.post(evaluation);
+        }
+        dirty |= delta.type;
+    }
+
+    /**
+     * Gets the number of battery thresholds at or below a level. Two levels with
+     * the same band match the same triggers.
+     *
+     * @param level Battery level in percent.
+     * @return Battery band.
+     */
+    private int getBatteryBand(int level) {
+
+        int index = Arrays.binarySearch(batteryThresholds, level);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Applies a new winning trigger once it has won for the minimum dwell time,
+     * restarting the wait whenever the winner changes. The first decision after
+     * the service starts is applied immediately. Winners are compared by name
+     * and profile, so reloading the winning trigger doesn't count as a new
+     * winner unless its profile changed.
+     *
+     * @param trigger Matching trigger with the highest priority, or null if none match.
+     */
+    private void decide(Trigger trigger) {
+
+        if (decided && isSameTrigger(trigger, winner)) {
+            winner = trigger;
+            return;
+        }
+
+        winner = trigger;
+        handler.removeCallbacks(decision);
+
+        long dwellTime = service.getMinimumDwellTime();
+        if (!decided || dwellTime == 0) {
+            decided = true;
+            decision.run();
+        } else {
+            handler.postDelayed(decision, dwellTime);
+        }
+    }
+
+    /**
+     * Checks if two winners would apply the same profile for the same trigger.
+     *
+     * @param a Trigger, or null.
+     * @param b Trigger, or null.
+     * @return true if both are null, or have the same name and profile.
+     */
+    static boolean isSameTrigger(Trigger a, Trigger b) {
+
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getName().equals(b.getName())
+                && (a.getProfileName() == null ? b.getProfileName() == null : a.getProfileName().equals(b.getProfileName()));
+    }
+
+    /**
+     * Applies the winning trigger.
+     */
+    private final Runnable decision = new Runnable() {
+
+        @Override
+        public void run() {
+            if (!quitting) {
+                service.comparePriorities(winner);
+            }
+        }
+    };
+
+    /**
+     * Stops applying results, then cancels the time boundary alarm and stops
+     * the worker thread once pending evaluations are finished.
+     */
+    void quit() {
+
+        quitting = true;
+        handler.removeCallbacks(decision);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                service.scheduleTimeBoundary(-1);
+            }
+        });
+        thread.quitSafely();
+    }
+
+    /**
+     * Applies the pending state to the engine and compares the priorities once
+     * if the set of matching triggers changed.
+     */
+    private final Runnable evaluation = new Runnable() {
+
+        @Override
+        public void run() {
+
+            if (quitting) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            int changes;
+            int minuteOfWeek;
+            boolean headphones;
+            boolean batteryCharging;
+            int batteryLevel;
+            Map<String, Boolean> geofenceChanges;
+            boolean scanTriggers;
+            Set<String> changedTriggers;
+
+            // Take the pending state.
+            synchronized (TriggerEvaluator.this) {
+                changes = dirty;
+                minuteOfWeek = TriggerEvaluator.this.minuteOfWeek;
+                headphones = TriggerEvaluator.this.headphones;
+                batteryCharging = TriggerEvaluator.this.batteryCharging;
+                batteryLevel = TriggerEvaluator.this.batteryLevel;
+                geofenceChanges = TriggerEvaluator.this.geofenceChanges;
+                TriggerEvaluator.this.geofenceChanges = new LinkedHashMap<>();
+                scanTriggers = TriggerEvaluator.this.scanTriggers;
+                changedTriggers = TriggerEvaluator.this.changedTriggers;
+                TriggerEvaluator.this.scanTriggers = false;
+                TriggerEvaluator.this.changedTriggers = new HashSet<>();
+                dirty = 0;
+            }
+
+            boolean changed = false;
+
+            if ((changes & StateDelta.TIME) != 0) {
+                changed |= engine.setTime(minuteOfWeek);
+            }
+            if ((changes & StateDelta.HEADPHONES) != 0) {
+                changed |= engine.setHeadphones(headphones);
+            }
+            if ((changes & StateDelta.BATTERY_STATE) != 0) {
+                changed |= engine.setBatteryCharging(batteryCharging);
+            }
+            // Filtered battery levels are kept, so also set the latest one on refresh.
+            if ((changes & (StateDelta.BATTERY_LEVEL | StateDelta.REFRESH)) != 0) {
+                changed |= engine.setBatteryLevel(batteryLevel);
+            }
+            if ((changes & StateDelta.GEOFENCES) != 0) {
+                for (Map.Entry<String, Boolean> change : geofenceChanges.entrySet()) {
+                    changed |= engine.setInsideGeofence(change.getKey(), change.getValue());
+                }
+            }
+            // Reload only the triggers whose files changed.
+            if ((changes & StateDelta.REFRESH) != 0) {
+                // On the first refresh, start from the snapshot of the last loaded triggers.
+                if (!restored) {
+                    long restoreStart = SystemClock.elapsedRealtime();
+                    changed |= engine.setTriggers(loader.restoreSnapshot());
+                    restored = true;
+                    // Files may have changed since the snapshot was written.
+                    scanTriggers = true;
+                    if (EventLog.isDebug()) {
+                        Log.i(TAG, "Snapshot restored in " + (SystemClock.elapsedRealtime() - restoreStart) + " ms");
+                    }
+                }
+                if (scanTriggers) {
+                    changedTriggers.addAll(loader.findChangedTriggers());
+                }
+                for (String name : changedTriggers) {
+                    Trigger trigger = loader.load(name);
+                    if (trigger == null) {
+                        changed |= engine.removeTrigger(name);
+                    } else {
+                        changed |= engine.putTrigger(trigger);
+                    }
+                }
+                if (!changedTriggers.isEmpty()) {
+                    loader.saveSnapshot();
+                }
+                batteryThresholds = engine.getBatteryThresholds();
+            }
+
+            if (EventLog.isDebug()) {
+                Log.i(TAG, "Evaluated changes " + Integer.toBinaryString(changes) + ", matching triggers changed: " + changed);
+            }
+
+            if (changed) {
+                decide(engine.getHighestPriorityTrigger());
+            }
+
+            TriggerMetrics.evaluations.increment();
+            TriggerMetrics.evaluationTime.recordSince(start);
+
+            // Wake up again when the next time-based decision can change.
+            if ((changes & (StateDelta.TIME | StateDelta.REFRESH)) != 0) {
+                service.scheduleTimeBoundary(engine.getNextBoundary());
+            }
+        }
+    };
+}
@@ -0,0 +1,364 @@
+package net.davidnorton.securityapp.services;
+
+import android.content.Context;
+import android.content.res.Resources.NotFoundException;
+import android.util.Log;
+
+import net.davidnorton.securityapp.trigger.GeofenceRegistrar;
+import net.davidnorton.securityapp.trigger.SimpleGeofence;
+import net.davidnorton.securityapp.trigger.SimpleGeofenceStore;
+import net.davidnorton.securityapp.trigger.Trigger;
+import net.davidnorton.securityapp.trigger.TriggerSchedule;
+import net.davidnorton.securityapp.trigger.XmlParserTrigger;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads enabled triggers from the EntityStore and registers their geo-fences,
+ * remembering the stored version of each trigger so only changed triggers are
+ * parsed again. Used only on the evaluator thread.
+ *
+ * The loaded triggers are saved to a binary snapshot in the cache directory,
+ * so after a restart they can be restored with a single read and only the
+ * triggers changed since the snapshot was written are parsed.
+ *
+ * @author David Norton
+ */
+class TriggerLoader {
+
+    private final static String TAG = "TriggerLoader";
+
+    // Snapshot file name and format version, increase when the format changes.
+    private static final String SNAPSHOT = "triggers.snapshot";
+    private static final int SNAPSHOT_VERSION = 3;
+
+    private final Context context;
+    private final EntityStore store;
+
+    // Each loaded trigger with its stored version, by trigger name.
+    private final Map<String, Stamp> loaded = new HashMap<>();
+
+    /**
+     * A loaded trigger and its stored version.
+     */
+    private static class Stamp {
+
+        final Trigger trigger;
+        final long version;
+
+        Stamp(Trigger trigger, long version) {
+            this.trigger = trigger;
+            this.version = version;
+        }
+    }
+
+    TriggerLoader(Context context) {
+        this.context = context;
+        this.store = EntityStore.getInstance(context);
+    }
+
+    /**
+     * Finds the triggers that were added, changed, removed or disabled since
+     * they were last loaded.
+     *
+     * @return Names of the changed triggers.
+     */
+    Set<String> findChangedTriggers() {
+
+        Set<String> changed = new HashSet<>();
+        Map<String, Long> versions = store.versions(EntityStore.TRIGGER, EntityStore.ENABLED_ONLY);
+
+        // New or modified enabled triggers.
+        for (Map.Entry<String, Long> entry : versions.entrySet()) {
+            Stamp stamp = loaded.get(entry.getKey());
+            if (stamp == null || stamp.version != entry.getValue()) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        // Triggers that were deleted or disabled.
+        for (String name : loaded.keySet()) {
+            if (!versions.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+
+        if (EventLog.isDebug()) {
+            Log.i(TAG, "Changed triggers: " + changed.size() + " of " + versions.size());
+        }
+        return changed;
+    }
+
+    /**
+     * Parses a single trigger and registers its geo-fence. If the trigger no
+     * longer exists or is disabled, it is forgotten and its geo-fences unregistered.
+     *
+     * @param name Name of the trigger.
+     * @return The parsed trigger, or null if it is no longer active.
+     */
+    Trigger load(String name) {
+
+        long version = store.getVersion(EntityStore.TRIGGER, name, EntityStore.ENABLED_ONLY);
+
+        // Trigger deleted or disabled.
+        if (version == -1) {
+            if (loaded.remove(name) != null) {
+                GeofenceRegistrar registrar = GeofenceRegistrar.getInstance(context);
+                registrar.unregister(name);
+                registrar.unregister(name + SimpleGeofence.EXIT_SUFFIX);
+                if (EventLog.isDebug()) {
+                    Log.i(TAG, "Trigger removed: " + name);
+                }
+            }
+            return null;
+        }
+
+        Trigger trigger = new Trigger(name);
+
+        try {
+            long start = System.nanoTime();
+            XmlParserTrigger parser = new XmlParserTrigger(context);
+            parser.initializeXmlParser(store.open(EntityStore.TRIGGER, name), trigger);
+            TriggerMetrics.xmlParseTime.recordSince(start);
+        } catch (NotFoundException | IOException | XmlPullParserException e) {
+            e.printStackTrace();
+            loaded.remove(name);
+            return null;
+        }
+
+        loaded.put(name, new Stamp(trigger, version));
+        registerGeofence(trigger);
+        if (EventLog.isDebug()) {
+            Log.i(TAG, "Trigger loaded: " + name);
+        }
+
+        return trigger;
+    }
+
+    /**
+     * Restores the triggers from the snapshot and registers their geo-fences.
+     * Triggers changed since are then found by findChangedTriggers().
+     *
+     * @return The restored triggers, or an empty list if there is no valid snapshot.
+     */
+    List<Trigger> restoreSnapshot() {
+
+        List<Trigger> triggers = new ArrayList<>();
+        File file = new File(context.getCacheDir(), SNAPSHOT);
+
+        if (!file.exists()) {
+            return triggers;
+        }
+
+        try {
+            // Read the whole snapshot at once.
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream input = new FileInputStream(file);
+            try {
+                new DataInputStream(input).readFully(data);
+            } finally {
+                input.close();
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                Log.i(TAG, "Snapshot version changed");
+                return triggers;
+            }
+
+            Map<String, Stamp> restored = new HashMap<>();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                long version = in.readLong();
+                Trigger trigger = readTrigger(in);
+                restored.put(trigger.getName(), new Stamp(trigger, version));
+            }
+
+            loaded.putAll(restored);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return triggers;
+        }
+
+        for (Stamp stamp : loaded.values()) {
+            registerGeofence(stamp.trigger);
+            triggers.add(stamp.trigger);
+        }
+
+        if (EventLog.isDebug()) {
+            Log.i(TAG, "Triggers restored from snapshot: " + triggers.size());
+        }
+        return triggers;
+    }
+
+    /**
+     * Writes the loaded triggers to the snapshot, replacing it only once the
+     * new snapshot is completely written.
+     */
+    void saveSnapshot() {
+
+        File file = new File(context.getCacheDir(), SNAPSHOT);
+        File temp = new File(context.getCacheDir(), SNAPSHOT + ".tmp");
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(loaded.size());
+
+                for (Stamp stamp : loaded.values()) {
+                    out.writeLong(stamp.version);
+                    writeTrigger(out, stamp.trigger);
+                }
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "Could not replace snapshot");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+
+    /**
+     * Writes a trigger and its compiled schedule.
+     *
+     * @param out Output stream.
+     * @param trigger Trigger to write.
+     * @throws IOException
+     */
+    private static void writeTrigger(DataOutputStream out, Trigger trigger) throws IOException {
+
+        out.writeUTF(trigger.getName());
+        writeString(out, trigger.getProfileName());
+        out.writeInt(trigger.getPriority());
+        out.writeInt(trigger.getStartHours());
+        out.writeInt(trigger.getStartMinutes());
+        out.writeInt(trigger.getEndHours());
+        out.writeInt(trigger.getEndMinutes());
+        out.writeByte(trigger.getHeadphones().ordinal());
+        out.writeByte(trigger.getBatteryState().ordinal());
+        out.writeInt(trigger.getBatteryStartLevel());
+        out.writeInt(trigger.getBatteryEndLevel());
+        out.writeInt(trigger.getBatteryHysteresis());
+        writeString(out, trigger.getGeofence());
+
+        Set<String> weekdays = trigger.getWeekdays();
+        out.writeInt(weekdays == null ? -1 : weekdays.size());
+        if (weekdays != null) {
+            for (String day : weekdays) {
+                out.writeUTF(day);
+            }
+        }
+
+        long[] schedule = trigger.getSchedule();
+        out.writeBoolean(schedule != null);
+        if (schedule != null) {
+            for (long word : schedule) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Reads a trigger written by writeTrigger().
+     *
+     * @param in Input stream.
+     * @return The trigger.
+     * @throws IOException
+     */
+    private static Trigger readTrigger(DataInputStream in) throws IOException {
+
+        Trigger trigger = new Trigger(in.readUTF());
+        trigger.setProfileName(readString(in));
+        trigger.setPriority(in.readInt());
+        trigger.setStartHours(in.readInt());
+        trigger.setStartMinutes(in.readInt());
+        trigger.setEndHours(in.readInt());
+        trigger.setEndMinutes(in.readInt());
+        trigger.setHeadphones(Trigger.listen_state.values()[in.readByte()]);
+        trigger.setBatteryState(Trigger.listen_state.values()[in.readByte()]);
+        trigger.setBatteryStartLevel(in.readInt());
+        trigger.setBatteryEndLevel(in.readInt());
+        trigger.setBatteryHysteresis(in.readInt());
+        trigger.setGeofence(readString(in));
+
+        int days = in.readInt();
+        if (days >= 0) {
+            Set<String> weekdays = new HashSet<>();
+            for (int i = 0; i < days; i++) {
+                weekdays.add(in.readUTF());
+            }
+            trigger.setWeekdays(weekdays);
+        }
+
+        if (in.readBoolean()) {
+            long[] schedule = TriggerSchedule.newBitmap();
+            for (int i = 0; i < schedule.length; i++) {
+                schedule[i] = in.readLong();
+            }
+            trigger.setSchedule(schedule);
+        }
+
+        return trigger;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Registers the geo-fence already stored for a trigger.
+     *
+     * @param trigger Trigger.
+     */
+    private void registerGeofence(Trigger trigger) {
+
+        // If a geo-fence is set.
+        if (trigger.getGeofence() != null) {
+            SimpleGeofenceStore store = SimpleGeofenceStore.getInstance(context);
+            SimpleGeofence geofence = store.getGeofence(trigger.getGeofence());
+
+            if (geofence != null) {
+                GeofenceRegistrar.getInstance(context).registerExisting(geofence);
+                if (EventLog.isDebug()) {
+                    Log.i(TAG, "Registered existing geofence: " + geofence.getId());
+                }
+            }
+
+            // Geo-fence for leaving the area.
+            geofence = store.getGeofence(trigger.getGeofence() + SimpleGeofence.EXIT_SUFFIX);
+            if (geofence != null) {
+                GeofenceRegistrar.getInstance(context).registerExisting(geofence);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package net.davidnorton.securityapp.services;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * Counters and latency histograms of the trigger service, shown by
+ * "adb shell dumpsys activity service TriggerService" and the diagnostics
+ * dialog of the activity log.
+ *
+ * @author David Norton
+ */
+public final class TriggerMetrics {
+
+    // Counters.
+    static final Counter evaluations = new Counter();
+    static final Counter matches = new Counter();
+    public static final Counter profileSwitches = new Counter();
+
+    // Latencies.
+    static final Histogram evaluationTime = new Histogram();
+    static final Histogram xmlParseTime = new Histogram();
+    static final Histogram dispatchTime = new Histogram();
+    public static final Histogram profileSwitchTime = new Histogram();
+
+    // Time from SCREEN_OFF to the first frame of the lock screen, without and with a prepared lock screen.
+    public static final Histogram lockscreenColdShowTime = new Histogram();
+    public static final Histogram lockscreenWarmShowTime = new Histogram();
+
+    // Time to test a location against the geo-fences tracked on the device.
+    public static final Histogram localGeofenceTime = new Histogram();
+
+    // Time the metrics were started or reset.
+    private static volatile long started = SystemClock.elapsedRealtime();
+
+    private TriggerMetrics() {
+    }
+
+    /**
+     * A counter that can be incremented from any thread.
+     */
+    public static final class Counter {
+
+        private long count;
+
+        public synchronized void increment() {
+            count++;
+        }
+
+        public synchronized long get() {
+            return count;
+        }
+
+        synchronized void reset() {
+            count = 0;
+        }
+    }
+
+    /**
+     * A latency histogram with power of two buckets, from under 16 microseconds
+     * to 16 seconds and over.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 22;
+        private static final int FIRST_BUCKET_SHIFT = 4;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalMicros;
+        private long maxMicros;
+
+        /**
+         * Records the time passed since a start time.
+         *
+         * @param startNanos Start time from System.nanoTime().
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        /**
+         * Records a latency.
+         *
+         * @param micros Latency in microseconds.
+         */
+        public synchronized void record(long micros) {
+
+            // Index of the highest set bit above the first bucket.
+            int bucket = 64 - Long.numberOfLeadingZeros(micros >>> FIRST_BUCKET_SHIFT);
+
+            buckets[Math.min(bucket, BUCKETS - 1)]++;
+            count++;
+            totalMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket containing it.
+         *
+         * @param percent Percentile between 0 and 100.
+         * @return Latency in microseconds.
+         */
+        public synchronized long percentile(int percent) {
+
+            long rank = (count * percent + 99) / 100;
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                // The last bucket has no upper bound.
+                if (seen >= rank && seen > 0 && i < BUCKETS - 1) {
+                    return Math.min(1L << (i + FIRST_BUCKET_SHIFT), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        synchronized void dump(PrintWriter writer, String name) {
+
+            writer.print("  " + name + ": count=" + count);
+            if (count > 0) {
+                writer.print(" avg=" + formatMicros(totalMicros / count)
+                        + " p50<=" + formatMicros(percentile(50))
+                        + " p90<=" + formatMicros(percentile(90))
+                        + " p99<=" + formatMicros(percentile(99))
+                        + " max=" + formatMicros(maxMicros));
+            }
+            writer.println();
+        }
+
+        synchronized void reset() {
+
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            totalMicros = 0;
+            maxMicros = 0;
+        }
+    }
+
+    /**
+     * Writes all counters and histograms.
+     *
+     * @param writer Writer.
+     */
+    public static void dump(PrintWriter writer) {
+
+        long elapsed = Math.max(SystemClock.elapsedRealtime() - started, 1);
+
+        writer.println("Trigger metrics over " + elapsed / 60000 + " min:");
+        writer.println("  evaluations: " + evaluations.get() + " (" + evaluations.get() * 3600000 / elapsed + "/h)");
+        writer.println("  matches: " + matches.get());
+        writer.println("  profile switches: " + profileSwitches.get() + " (" + profileSwitches.get() * 3600000 / elapsed + "/h)");
+        writer.println("Latencies:");
+        evaluationTime.dump(writer, "evaluation");
+        xmlParseTime.dump(writer, "trigger XML parse");
+        dispatchTime.dump(writer, "receiver dispatch");
+        profileSwitchTime.dump(writer, "profile switch");
+        lockscreenColdShowTime.dump(writer, "lock screen show (cold)");
+        lockscreenWarmShowTime.dump(writer, "lock screen show (warm)");
+        localGeofenceTime.dump(writer, "local geofence fix");
+        writer.println("Event log: " + EventLog.size() + " of " + EventLog.CAPACITY + " events");
+    }
+
+    /**
+     * Resets all counters and histograms.
+     */
+    public static void reset() {
+
+        evaluations.reset();
+        matches.reset();
+        profileSwitches.reset();
+        evaluationTime.reset();
+        xmlParseTime.reset();
+        dispatchTime.reset();
+        profileSwitchTime.reset();
+        lockscreenColdShowTime.reset();
+        lockscreenWarmShowTime.reset();
+        localGeofenceTime.reset();
+        started = SystemClock.elapsedRealtime();
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 10000 ? micros + "us" : micros / 1000 + "ms";
+    }
+}
@@ -1,83 +1,72 @@
 package net.davidnorton.securityapp.services;
 
+import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.content.res.Resources.NotFoundException;
 import android.media.AudioManager;
-import android.os.BatteryManager;
+import android.os.Build;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import net.davidnorton.securityapp.profile.Handler;
-import net.davidnorton.securityapp.trigger.LocationTrigger;
-import net.davidnorton.securityapp.trigger.SimpleGeofence;
-import net.davidnorton.securityapp.trigger.SimpleGeofenceStore;
 import net.davidnorton.securityapp.trigger.Trigger;
-import net.davidnorton.securityapp.trigger.XmlParserTrigger;
+import net.davidnorton.securityapp.trigger.TriggerSchedule;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
-import java.util.ArrayList;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Calendar;
-import java.util.List;
 
 /**
  * Service that manages triggers.
- * 
+ *
  * @author David Norton
- * 
+ *
  */
-@SuppressWarnings("RedundantIfStatement")
 public class TriggerService extends Service {
 
     private final static String TAG = "TriggerService";
 
+    // Broadcast sent by the alarm set for the next time boundary.
+    static final String ACTION_TIME_BOUNDARY = "net.davidnorton.securityapp.trigger.time_boundary";
+
+    // Names of the changed triggers, sent with the refresh broadcast.
+    public static final String EXTRA_TRIGGER_NAMES = "net.davidnorton.securityapp.trigger.names";
+
 	private TriggerBroadcastReceiver triggerReceiver;
-    private Context context;
-	private int currentHours;
-	private int currentMinutes;
-	private String currentWeekday;
-	private boolean headphones;
-	private boolean batteryCharging;
-	private int batteryLevel;
-	private final List<Trigger> triggerList = new ArrayList<>();
-	private final List<Trigger> triggerPriorityList = new ArrayList<>();
-	private String[] geofences;
+	private TriggerEvaluator evaluator;
 
     /**
-     * Sets initial values, initialises & registers the broadcast receiver and loads existing triggers.
-     *
-     * @param intent Intent.
-     * @param flags Flags.
-     * @param startId Start ID.
-     * @return START_STICKY (1).
+     * Starts the evaluator thread and registers the broadcast receiver.
      */
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public void onCreate() {
 
-        Log.i(TAG, "TriggerService started");
+        super.onCreate();
 
-        // Set initial trigger values.
-        setInitialTime();
-        setInitialWeekday();
-        setInitialHeadphones(context);
+        Log.i(TAG, "TriggerService created");
 
-        // Create a broadcast receiver to handle changes.
-        triggerReceiver = new TriggerBroadcastReceiver(this);
+        // Only write detailed messages to logcat if enabled in the advanced settings.
+        EventLog.setDebug(PreferenceManager.getDefaultSharedPreferences(this).getBoolean("debug_log", false));
+
+        // Create the evaluator and a broadcast receiver to post changes to it.
+        evaluator = new TriggerEvaluator(this);
+        triggerReceiver = new TriggerBroadcastReceiver(evaluator);
 
         // Register broadcast receivers for the intents.
         IntentFilter filter = new IntentFilter(Intent.ACTION_HEADSET_PLUG);
         registerReceiver(triggerReceiver,filter);
-        filter = new IntentFilter(Intent.ACTION_TIME_TICK);
+        filter = new IntentFilter(ACTION_TIME_BOUNDARY);
+        registerReceiver(triggerReceiver,filter);
+        filter = new IntentFilter(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         registerReceiver(triggerReceiver,filter);
         filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        Intent batteryIntent = registerReceiver(triggerReceiver, filter);
-        setInitialBatteryState(batteryIntent);
+        registerReceiver(triggerReceiver, filter);
         filter = new IntentFilter(Intent.ACTION_POWER_CONNECTED);
         registerReceiver(triggerReceiver, filter);
         filter = new IntentFilter(Intent.ACTION_POWER_DISCONNECTED);
@@ -88,102 +77,48 @@ public class TriggerService extends Service {
         registerReceiver(triggerReceiver, filter);
         filter = new IntentFilter("net.davidnorton.securityapp.trigger.clearGeofences");
         registerReceiver(triggerReceiver, filter);
-
-        refreshTriggers();
-
-        super.onStartCommand(intent, flags, startId);
-        return START_STICKY;
     }
 
     /**
-     * Refreshes the list of triggers.
+     * Posts the current state and a refresh of the triggers, which are
+     * evaluated together in a single pass.
+     *
+     * @param intent Intent.
+     * @param flags Flags.
+     * @param startId Start ID.
+     * @return START_STICKY (1).
      */
-    public void refreshTriggers() {
-
-        triggerList.clear();
-
-        String[] fileList = getFilesDir().list();
-        XmlParserTrigger parser = new XmlParserTrigger(this);
-
-        try {
-            // For each active trigger.
-            for (int i = 0; i < fileList.length; i++) {
-                if (fileList[i].contains("_trigger")) {
-                    // Get name and add to list.
-                    Trigger trigger = new Trigger(fileList[i].substring(0, fileList[i].length() - 12));
-                    Log.i(TAG, "Trigger found: " + trigger.getName());
-                    parser.initializeXmlParser(openFileInput(fileList[i]), trigger);
-                    triggerList.add(trigger);
-                } else {
-                    Log.i(TAG, "Not a trigger file");
-                }
-            }
-        } catch (NotFoundException | IOException | XmlPullParserException e) {
-            e.printStackTrace();
-        }
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
 
-        registerExistingGeofences();
-        Log.i(TAG, "triggerList: " + triggerList.size());
-    }
+        Log.i(TAG, "TriggerService started");
 
-    /**
-     * Compares the triggers with the actual state.
-     */
-    private void compareTriggers() {
-
-        triggerPriorityList.clear();
-        Log.i(TAG, "compareTriggers called");
-
-        for (Trigger trigger : triggerList) {
-            Log.i(TAG, "Compare Trigger:\n" +
-                    "-------------------------------------\n" +
-                    trigger.getName() +"\n" +
-                    "-------------------------------------");
-            if(compareTime(trigger)){
-                Log.i(TAG, "trigger matching time");
-                if(compareWeekday(trigger)){
-                    Log.i(TAG, "trigger matching weekday");
-                    if(compareHeadphones(trigger)){
-                        Log.i(TAG, "trigger matching headphones");
-                        if(compareBatteryCharging(trigger)){
-                            Log.i(TAG, "trigger matching battery state");
-                            if(compareBatteryLevel(trigger)) {
-                                Log.i(TAG, "trigger matching battery level");
-                                if (compareGeofence(trigger)) {
-                                    Log.i(TAG, "trigger matching geofence");
-                                    Log.i(TAG, "adding trigger to triggerPriorityList: " + trigger.getName());
-                                    triggerPriorityList.add(trigger);
-                                    Log.i(TAG, "highestPriority add: " + trigger.getName());
-                                } else {
-                                    Log.i(TAG, trigger.getName() + " does not match geofence");
-                                }
-                            }
-                            else {
-                                    Log.i(TAG, trigger.getName() + " does not match battery level");
-                                }
-                        } else {
-                            Log.i(TAG, trigger.getName() + " does not match battery state");
-                        }
-                    } else {
-                        Log.i(TAG, trigger.getName() + " does not match headphones");
-                    }
-                } else {
-                    Log.i(TAG, trigger.getName() + " does not match weekday");
-                }
-            } else {
-                Log.i(TAG, trigger.getName() + " does not match time " + trigger.getStartHours() + " " + trigger.getEndHours());
-            }
+        // Set initial trigger values.
+        evaluator.post(StateDelta.time(TriggerSchedule.minuteOfWeek(Calendar.getInstance())));
+
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        evaluator.post(StateDelta.headphones(audioManager.isWiredHeadsetOn()));
+
+        Intent batteryIntent = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryIntent != null) {
+            evaluator.post(StateDelta.batteryCharging(TriggerBroadcastReceiver.isCharging(batteryIntent)));
+            evaluator.post(StateDelta.batteryLevel(TriggerBroadcastReceiver.getBatteryLevel(batteryIntent)));
         }
 
-        comparePriorities();
+        evaluator.post(StateDelta.refresh(null));
+
+        super.onStartCommand(intent, flags, startId);
+        return START_STICKY;
     }
 
     /**
-     * Unregister trigger.
+     * Unregisters the broadcast receiver and stops the evaluator thread, which
+     * cancels the time boundary alarm.
      */
     @Override
     public void onDestroy() {
         unregisterReceiver(triggerReceiver);
+        evaluator.quit();
     }
 
     @Override
@@ -191,447 +126,96 @@ public class TriggerService extends Service {
         return null;
     }
 
-	/**
-	 * Sets status of headphones state on initialization and compares the triggers.
-     *
-     * @param context Context.
-     */
-	private void setInitialHeadphones(Context context){
-
-        AudioManager audiomanager = (AudioManager) getApplicationContext().getSystemService(Context.AUDIO_SERVICE);
-
-        if(audiomanager.isWiredHeadsetOn()){
-			headphones = true;
-			Log.i(TAG, "Headphone value defined as: plugged");
-		} else {
-			headphones = false;
-			Log.i(TAG, "Headphone value defined as: unplugged");
-		}
-
-		compareTriggers();
-	}
-
     /**
-     * Set headphone state.
+     * Writes the trigger metrics for "adb shell dumpsys activity service TriggerService".
+     * The "reset" argument resets them afterwards.
      *
-     * @param headphones Initial headphone state
+     * @param fd File descriptor.
+     * @param writer Writer.
+     * @param args Arguments.
      */
-    public void setHeadphones(boolean headphones) {
-        this.headphones = headphones;
-        Log.i(TAG, "headphones changed to " + headphones);
-        compareTriggers();
-    }
-
-    /**
-     * Compares saved headphone state with current state received by the broadcast receiver.
-     *
-     * @param trigger Trigger comparing to.
-     * @return true if match, false otherwise.
-     */
-    private boolean compareHeadphones(Trigger trigger){
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
 
-        if(!trigger.getHeadphones().equals(Trigger.listen_state.ignore)){
+        TriggerMetrics.dump(writer);
 
-            if(headphones && trigger.getHeadphones().equals(Trigger.listen_state.listen_on)){
-                return true;
-            } else if(!headphones && trigger.getHeadphones().equals(Trigger.listen_state.listen_off)){
-                return true;
-            } else{
-                return false;
-            }
-        } else {
-            return true;
+        if (args != null && args.length > 0 && args[0].equals("reset")) {
+            TriggerMetrics.reset();
+            writer.println("Metrics reset.");
         }
     }
-	
-	/**
-	 * Sets the time on initialization and compares the triggers.
-	 */
-	private void setInitialTime() {
-
-		int hour = Integer.parseInt(String.valueOf(Calendar.getInstance().get(Calendar.HOUR_OF_DAY)));
-		int min = Integer.parseInt(String.valueOf(Calendar.getInstance().get(Calendar.MINUTE)));
-		setTime(hour, min);
-		
-		compareTriggers();
-	}
 
     /**
-     * Sets the time.
+     * Sets a single alarm for the next minute at which a trigger's time or weekday
+     * condition can change, replacing any previous alarm. Called on the evaluator thread.
      *
-     * @param cHours Current hour.
-     * @param cMinutes Current minutes.
+     * @param minuteOfWeek Minute of the week of the next boundary, or -1 to cancel the alarm.
      */
-    public void setTime(int cHours, int cMinutes) {
-
-        currentHours = cHours;
-        currentMinutes = cMinutes;
-        Log.i(TAG, "current time updated: " + currentHours + ":" + currentMinutes);
+    void scheduleTimeBoundary(int minuteOfWeek) {
 
-        compareTriggers();
-    }
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(ACTION_TIME_BOUNDARY);
+        intent.setPackage(getPackageName());
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
 
-    /**
-     * Compares time saved with current time received by the broadcast receiver.
-     *
-     * @param trigger Trigger comparing to.
-     * @return true if match, false otherwise.
-     */
-    private boolean compareTime(Trigger trigger){
-
-        Log.i(TAG, "compare time called!");
-
-        // If no time range set.
-        if (trigger.getStartHours() == -1 && trigger.getEndHours() == -1){
-            Log.i(TAG, "time ignored");
-            return true;
-        }
-        // If time end not set.
-        else if (trigger.getEndHours() == -1){
-            Log.i(TAG, "no end time set, only compared to certain time");
-
-            // If the current time matches the time set in the trigger.
-            if(currentHours == trigger.getStartHours() && currentMinutes == trigger.getStartMinutes()){
-                Log.i(TAG, "trigger matches exact current time");
-                return true;
-            }
-            else {
-                return false;
+        // If no trigger depends on the time.
+        if (minuteOfWeek == -1) {
+            alarmManager.cancel(pendingIntent);
+            if (EventLog.isDebug()) {
+                Log.i(TAG, "time boundary alarm cancelled");
             }
+            return;
         }
-        // If start and end hours are on the same day.
-        else if((trigger.getStartHours() < trigger.getEndHours()) ||
-                (trigger.getStartHours() == trigger.getEndHours() && trigger.getStartMinutes() < trigger.getEndMinutes())){
-
-            Log.i(TAG, "time range on same day");
-
-            // If the hours are between the trigger hours.
-            if(currentHours > trigger.getStartHours() && currentHours < trigger.getEndHours()){
-                return true;
-            }
-            // If the start hour are the same as the current hour.
-            else if(currentHours == trigger.getStartHours() && currentMinutes >= trigger.getStartMinutes()){
-
-                if(currentHours < trigger.getEndHours()){
-                    return true;
-                }
-                else if(currentHours == trigger.getEndHours() && currentMinutes <= trigger.getEndMinutes()){
-                    return true;
-                }
-                else {
-                    return false;
-                }
-            }
-            // If the end hour are the same as the current hour.
-            else if(currentHours == trigger.getEndHours() && currentMinutes <= trigger.getEndMinutes()){
-
-                if(currentHours > trigger.getStartHours()){
-                    return true;
-                }
-                else if(currentHours == trigger.getStartHours() && currentMinutes > trigger.getStartMinutes()){
-                    return true;
-                }
-                else {
-                    return false;
-                }
-            }
-            else{
-                return false;
-            }
-        // If the end time is already on the next day.
-        } else if (trigger.getStartHours() > trigger.getEndHours() ||
-                (trigger.getStartHours() == trigger.getEndHours() && trigger.getStartMinutes() > trigger.getEndMinutes())){
-
-            Log.i(TAG, "time range on other day");
 
-            // If the time is after the start time or before the end time.
-            if(currentHours > trigger.getStartHours() || currentHours < trigger.getEndHours()){
-                return true;
-            }
-            // If the hour is the same as the start hour.
-            else if(currentHours == trigger.getStartHours() && currentMinutes >= trigger.getStartMinutes()){
-                return true;
-            }
-            // If the hour is the same as the end hour.
-            else if(currentHours == trigger.getEndHours() && currentMinutes <= trigger.getEndMinutes()){
-                return true;
-            } else {
-                return false;
-            }
-        } else {
-            return false;
+        // Minutes from the start of the current minute to the boundary.
+        Calendar cal = Calendar.getInstance();
+        int minutes = minuteOfWeek - TriggerSchedule.minuteOfWeek(cal);
+        if (minutes < 0) {
+            minutes += TriggerSchedule.MINUTES_PER_WEEK;
         }
-    }
-	
-	/**
-	 * Sets the days on initialization and compares the triggers.
-	 */
-	private void setInitialWeekday() {
-
-	    Calendar cal = Calendar.getInstance();
-        String weekday = "";
-	    int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
-
-	    if (Calendar.MONDAY == dayOfWeek) {
-	        weekday = "1";
-	    } else if (Calendar.TUESDAY == dayOfWeek) {
-	        weekday = "2";
-	    } else if (Calendar.WEDNESDAY == dayOfWeek) {
-	        weekday = "3";
-	    } else if (Calendar.THURSDAY == dayOfWeek) {
-	        weekday = "4";
-	    } else if (Calendar.FRIDAY == dayOfWeek) {
-	        weekday = "5";
-	    } else if (Calendar.SATURDAY == dayOfWeek) {
-	        weekday = "6";
-	    } else if (Calendar.SUNDAY == dayOfWeek) {
-	        weekday = "7";
-	    }
-	    
-	    setWeekday(weekday);
-	    
-	    compareTriggers();
-	}
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.MINUTE, minutes);
 
-    /**
-     * Sets the day.
-     *
-     * @param currentDay Current day.
-     */
-    private void setWeekday(String currentDay) {
-        currentWeekday = currentDay;
-        Log.i(TAG, "current weekday updated: " + currentWeekday);
-
-        compareTriggers();
-    }
-
-    /**
-     * Compares saved day with current day received by the broadcast receiver.
-     *
-     * @param trigger Trigger comparing to.
-     * @return true if match, false otherwise.
-     */
-    private boolean compareWeekday(Trigger trigger) {
-
-        Log.i(TAG, "compare day called!");
-
-        // If not set.
-        if (trigger.getWeekdays() == null) {
-            return true;
-        }
-
-        // If every or no days set.
-        if (trigger.getWeekdays().size() == 7 || trigger.getWeekdays().size() == 0){
-            Log.i(TAG, "every or no day is set");
-            return true;
-        }
-
-        // If day is set.
-        if (trigger.getWeekdays().contains(currentWeekday)){
-            return true;
-        }
-
-        return false;
-    }
-	
-	/**
-	 * Sets the battery state on initialization and compares the triggers.
-     *
-     * @param intent Intent.
-     */
-    private void setInitialBatteryState(Intent intent){
-
-        // Get battery charging state.
-		int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-		boolean batteryCharging = (status == BatteryManager.BATTERY_STATUS_CHARGING);
-		Log.i(TAG, "initial battery state defined as " + batteryCharging);
-
-        // Get battery level value.
-		int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-		int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-		float batteryLevelF = level / (float)scale;
-		batteryLevel = (int)(batteryLevelF * 100);
-		Log.i(TAG, "initial battery level defined as " + batteryLevel);
-
-		compareTriggers();
-	}
-
-    /**
-     * Set battery charging state.
-     *
-     * @param batteryCharging Initial battery charging state.
-     */
-	public void setBatteryCharging(boolean batteryCharging) {
-
-		this.batteryCharging = batteryCharging;
-		Log.i(TAG, "batterystate changed to " + batteryCharging);
-
-		compareTriggers();
-	}
-
-    /**
-     * Set the battery level value.
-     *
-     * @param _batteryLevel Initial battery level value.
-     */
-	public void setBatteryLevel(int _batteryLevel) {
-
-		this.batteryLevel = _batteryLevel;
-		Log.i(TAG, "batterylevel changed to " + _batteryLevel);
-
-		compareTriggers();
-	}
-
-    /**
-     * Compares saved battery state with current battery state received by the broadcast receiver.
-     *
-     * @param trigger Trigger comparing to.
-     * @return true if match, false otherwise.
-     */
-    private boolean compareBatteryCharging(Trigger trigger){
-
-        // If state is set.
-        if(!trigger.getBatteryState().equals(Trigger.listen_state.ignore)){
-
-            if(trigger.getBatteryState().equals(Trigger.listen_state.listen_on) && batteryCharging){
-                return true;
-            } else if(trigger.getBatteryState().equals(Trigger.listen_state.listen_off) && !batteryCharging){
-                return true;
-            } else {
-                return false;
-            }
-        } else{
-            return true;
-        }
-    }
-
-    /**
-     * Compares saved battery level with current battery state received by the broadcast receiver.
-     * If the trigger has only the battery start level defined, it needs to match the value exactly.
-     *
-     * @param trigger Trigger comparing to.
-     * @return true if match, false otherwise.
-     */
-    private boolean compareBatteryLevel(Trigger trigger){
-
-        if(trigger.getBatteryStartLevel() == -1 && trigger.getBatteryEndLevel() == -1){
-            return true;
-        } else if(trigger.getBatteryEndLevel() == -1 && trigger.getBatteryStartLevel() == batteryLevel){
-            return true;
-        } else if(trigger.getBatteryStartLevel() < batteryLevel && trigger.getBatteryEndLevel() > batteryLevel){
-            return true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, cal.getTimeInMillis(), pendingIntent);
+        } else {
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, cal.getTimeInMillis(), pendingIntent);
         }
-        return false;
-    }
-
-    /**
-     * Registers all the geo-fences already stored in a trigger.
-     */
-    private void registerExistingGeofences() {
-
-        SimpleGeofence geofence;
-        SimpleGeofenceStore store = new SimpleGeofenceStore(getApplicationContext());
-        LocationTrigger trigger = new LocationTrigger(getApplicationContext());
-
-        // For each trigger.
-        for(int i=0; i < triggerList.size(); i++) {
-            // If a geo-fence is set.
-            if(triggerList.get(i).getGeofence() != null){
-                // Register geo-fence.
-                geofence = store.getGeofence(triggerList.get(i).getGeofence());
-                trigger.registerGeofence(geofence);
-                Log.i(TAG, "Registered existing geofence: " + geofence.getId());
-            }
+        if (EventLog.isDebug()) {
+            Log.i(TAG, "time boundary alarm set in " + minutes + " minutes");
         }
     }
 
     /**
-     * Clears currently triggered geo-fences.
+     * @return Time a new winning trigger must keep winning before its profile is applied, in milliseconds.
      */
-    public void clearGeofences(){
-
-        geofences = null;
-        Log.i(TAG, "all geofences cleared!");
-    }
-
-    /**
-     * Set geo-fences.
-     *
-     * @param geofence List of geo-fences.
-     */
-	public void setGeofences(String[] geofence) {
-        Log.i(TAG, "GEO-FENCE SET!");
-        this.geofences = geofence;
-        compareTriggers();
-	}
-
-    /**
-     * Compares saved geo-fence with current geo-fence received by the broadcast receiver.
-     *
-     * @param trigger Trigger comparing to.
-     * @return true if match, false otherwise.
-     */
-
-    private boolean compareGeofence(Trigger trigger){
-
-        // If no geo-fence set for the trigger.
-        if(trigger.getGeofence() == null){
-            return true;
-        }
-
-        // For each set geo-fence
-        if(geofences != null){
-            Log.i(TAG, "NUMBER OF GEO-FENCES FOUND: " + geofences.length);
-            for (String geofence : geofences) {
-                Log.i(TAG, "POTENTIAL GEO-FENCE MATCH!");
-                // If inside geo-fence
-                if (geofence.equals(trigger.getGeofence())) {
-                    Log.i(TAG, "INSIDE THE GEO-FENCE!");
-                    return true;
-                }
-            }
-        }
-
-        return false;
+    long getMinimumDwellTime() {
+        return Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this).getString("min_dwell_time", "0")) * 1000;
     }
 
 	/**
-	 * Compares the priorities of triggers.
+	 * Applies the profile of the matching trigger with the highest priority,
+	 * if it isn't the active profile. Called on the evaluator thread.
+	 *
+	 * @param highestTrigger Matching trigger with the highest priority, or null if none match.
 	 */
-	private void comparePriorities() {
+	void comparePriorities(Trigger highestTrigger) {
 
-		int highestPriority = -1;
-		Trigger highestTrigger = null;
 		SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
-		
-		Log.i(TAG, "comparePriorities called");
 
-        // For more than one trigger.
-		if (triggerPriorityList.size() > 1) {
-
-			Log.i(TAG, "triggerPriorityList: " + triggerPriorityList.size());
+		if (EventLog.isDebug()) {
+			Log.i(TAG, "comparePriorities called");
+		}
 
-            // Get highest priority.
-			for(Trigger trigger : triggerPriorityList) {
-				
-				if (trigger.getPriority() > highestPriority) {
-					highestTrigger = trigger;
-					highestPriority = trigger.getPriority();
-				}
-			}
-			// If highest trigger's profile isn't the active profile, apply profile.
-			if (highestTrigger != null &&
-                    !highestTrigger.getProfileName().equals(pref.getString("active_profile", "Default"))) {
-				Handler handler = new Handler(getApplicationContext());
-				handler.applyProfile(highestTrigger.getProfileName());
+		// If highest trigger's profile isn't the active profile, apply profile.
+		if (highestTrigger != null &&
+                !highestTrigger.getProfileName().equals(pref.getString("active_profile", "Default"))) {
+			Handler handler = new Handler(getApplicationContext());
+			handler.applyProfile(highestTrigger.getProfileName());
+			if (EventLog.isDebug()) {
 				Log.i(TAG, "matching trigger found: " + highestTrigger.getName());
 			}
-        // If only one trigger and its profile isn't the active profile.
-		} else if (triggerPriorityList.size() == 1 &&
-                !triggerPriorityList.get(0).getProfileName().equals(pref.getString("active_profile", "Default"))) {
-			Handler handler = new Handler(getApplicationContext());
-			handler.applyProfile(triggerPriorityList.get(0).getProfileName());
-			Log.i(TAG, "matching trigger found: " + triggerPriorityList.get(0).getName());
 		}
 	}
 }
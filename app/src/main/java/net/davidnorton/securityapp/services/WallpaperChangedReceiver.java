@@ -0,0 +1,50 @@
+package net.davidnorton.securityapp.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import net.davidnorton.securityapp.lockscreen.BlurEngine;
+
+import org.json.JSONObject;
+
+/**
+ * Blurs the new wallpaper for the lock screen when the wallpaper is
+ * changed, so it doesn't have to be updated by hand.
+ *
+ * @author David Norton
+ */
+public class WallpaperChangedReceiver extends BroadcastReceiver {
+
+    private final static String TAG = "WallpaperChangedReceiver";
+
+    /**
+     * Blurs the wallpaper in the background if the lock screen uses a blurred wallpaper.
+     *
+     * @param context Context.
+     * @param intent Intent.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+
+        JSONObject settings = SettingsRepository.getInstance(context).getRoot().optJSONObject("settings");
+        int blur = settings != null ? settings.optInt("blur", 0) : 0;
+
+        // Wallpaper isn't blurred.
+        if (blur == 0) {
+            return;
+        }
+
+        Log.i(TAG, "Wallpaper changed, blurring");
+
+        // Keep the receiver alive until the wallpaper is stored.
+        final PendingResult result = goAsync();
+        BlurEngine.getInstance(context).blurWallpaper(blur, new BlurEngine.Callback() {
+            @Override
+            public void onBlurred(boolean success) {
+                result.finish();
+            }
+        });
+    }
+}
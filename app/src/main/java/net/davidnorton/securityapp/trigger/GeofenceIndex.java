@@ -0,0 +1,215 @@
+package net.davidnorton.securityapp.trigger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid index of circular geo-fences, used to find the geo-fences containing
+ * a location without testing every one of them.
+ *
+ * The world is divided into cells of CELL_DEGREES latitude by longitude, and
+ * each geo-fence is listed in every cell its bounding box overlaps, so a
+ * lookup only tests the few geo-fences listed in the cell of the location.
+ * Geo-fences covering more than MAX_CELLS cells are kept in a separate list
+ * that every lookup tests instead.
+ *
+ * Distances use an equirectangular projection around the centre of each
+ * geo-fence, which is accurate to well under a metre for the radii of
+ * location triggers. Polygon geo-fences are indexed by their enclosing
+ * circle and tested against the polygon.
+ *
+ * Not thread safe.
+ *
+ * @author David Norton
+ */
+public final class GeofenceIndex {
+
+    // Size of a cell, about 1.1 km of latitude.
+    static final double CELL_DEGREES = 0.01;
+
+    // Larger geo-fences are tested on every lookup.
+    static final int MAX_CELLS = 64;
+
+    // Mean radius of the earth.
+    private static final double EARTH_RADIUS = 6371008.8;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private final Map<String, Circle> circles = new HashMap<>();
+    private final Map<Long, List<Circle>> cells = new HashMap<>();
+    private final List<Circle> large = new ArrayList<>();
+
+    /**
+     * A geo-fence in the index, with what is needed to test a location
+     * against it precomputed.
+     */
+    static final class Circle {
+
+        final String id;
+        final int transitions;
+        final double latitude;
+        final double longitude;
+        final double radiusSquared;
+        final double cosLatitude;
+        final GeofencePolygon polygon;
+
+        // Cells covered, inclusive.
+        final int minRow, maxRow, minColumn, maxColumn;
+
+        // Whether the last location was inside, kept by the GeofenceTracker.
+        boolean inside;
+        int seen;
+
+        Circle(SimpleGeofence geofence) {
+
+            id = geofence.getId();
+            transitions = geofence.getTransitionType();
+            latitude = geofence.getLatitude();
+            longitude = geofence.getLongitude();
+            radiusSquared = (double) geofence.getRadius() * geofence.getRadius();
+            cosLatitude = Math.cos(Math.toRadians(latitude));
+            polygon = geofence.getPolygon();
+
+            // Bounding box in degrees, widened towards the poles.
+            double latitudeSpan = geofence.getRadius() / METERS_PER_DEGREE;
+            double longitudeSpan = latitudeSpan / Math.max(cosLatitude, 0.01);
+
+            minRow = cell(latitude - latitudeSpan);
+            maxRow = cell(latitude + latitudeSpan);
+            minColumn = cell(longitude - longitudeSpan);
+            maxColumn = cell(longitude + longitudeSpan);
+        }
+
+        /**
+         * @param latitude Latitude of the location.
+         * @param longitude Longitude of the location.
+         * @return true if the location is inside the geo-fence.
+         */
+        boolean contains(double latitude, double longitude) {
+
+            if (polygon != null) {
+                return polygon.contains(latitude, longitude);
+            }
+
+            double y = (latitude - this.latitude) * METERS_PER_DEGREE;
+            double x = (longitude - this.longitude) * METERS_PER_DEGREE * cosLatitude;
+            return x * x + y * y <= radiusSquared;
+        }
+
+        boolean isLarge() {
+            return (long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS;
+        }
+    }
+
+    /**
+     * Adds a geo-fence, replacing the geo-fence with the same ID.
+     *
+     * @param geofence Geo-fence to add.
+     * @return The geo-fence in the index.
+     */
+    Circle put(SimpleGeofence geofence) {
+
+        remove(geofence.getId());
+
+        Circle circle = new Circle(geofence);
+        circles.put(circle.id, circle);
+
+        if (circle.isLarge()) {
+            large.add(circle);
+        } else {
+            for (int row = circle.minRow; row <= circle.maxRow; row++) {
+                for (int column = circle.minColumn; column <= circle.maxColumn; column++) {
+                    Long key = key(row, column);
+                    List<Circle> cell = cells.get(key);
+                    if (cell == null) {
+                        cell = new ArrayList<>(2);
+                        cells.put(key, cell);
+                    }
+                    cell.add(circle);
+                }
+            }
+        }
+        return circle;
+    }
+
+    /**
+     * Removes a geo-fence.
+     *
+     * @param id ID of the geo-fence.
+     * @return The removed geo-fence, or null if it wasn't in the index.
+     */
+    Circle remove(String id) {
+
+        Circle circle = circles.remove(id);
+        if (circle == null) {
+            return null;
+        }
+
+        if (circle.isLarge()) {
+            large.remove(circle);
+        } else {
+            for (int row = circle.minRow; row <= circle.maxRow; row++) {
+                for (int column = circle.minColumn; column <= circle.maxColumn; column++) {
+                    Long key = key(row, column);
+                    List<Circle> cell = cells.get(key);
+                    cell.remove(circle);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+        return circle;
+    }
+
+    /**
+     * Removes every geo-fence.
+     */
+    void clear() {
+
+        circles.clear();
+        cells.clear();
+        large.clear();
+    }
+
+    /**
+     * @return Number of geo-fences in the index.
+     */
+    public int size() {
+        return circles.size();
+    }
+
+    /**
+     * Finds the geo-fences containing a location.
+     *
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @param result List the geo-fences are added to.
+     */
+    void query(double latitude, double longitude, List<Circle> result) {
+
+        List<Circle> cell = cells.get(key(cell(latitude), cell(longitude)));
+        if (cell != null) {
+            for (int i = 0; i < cell.size(); i++) {
+                if (cell.get(i).contains(latitude, longitude)) {
+                    result.add(cell.get(i));
+                }
+            }
+        }
+
+        for (int i = 0; i < large.size(); i++) {
+            if (large.get(i).contains(latitude, longitude)) {
+                result.add(large.get(i));
+            }
+        }
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static Long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
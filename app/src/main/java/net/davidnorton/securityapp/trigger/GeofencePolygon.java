@@ -0,0 +1,182 @@
+package net.davidnorton.securityapp.trigger;
+
+/**
+ * Area of a geo-fence drawn as a polygon, for sites that a circle fits
+ * badly such as long buildings or campuses.
+ *
+ * The Google Location API only takes circles, so the polygon is registered
+ * as the circle enclosing it and locations inside the circle are tested
+ * against the polygon itself. The bounding box is kept to reject most
+ * locations before the point-in-polygon test, and neither allocates.
+ *
+ * @author David Norton
+ */
+public final class GeofencePolygon {
+
+    // Mean radius of the earth.
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private final double minLatitude, maxLatitude, minLongitude, maxLongitude;
+
+    // Enclosing circle.
+    private final double centerLatitude, centerLongitude;
+    private final float radius;
+
+    /**
+     * Creates a polygon from its corners, in order.
+     *
+     * @param latitudes Latitudes of the corners.
+     * @param longitudes Longitudes of the corners.
+     * @throws IllegalArgumentException If there are fewer than 3 corners.
+     */
+    public GeofencePolygon(double[] latitudes, double[] longitudes) {
+
+        if (latitudes.length < 3 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("A polygon needs at least 3 corners");
+        }
+
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+
+        double minLat = latitudes[0], maxLat = latitudes[0];
+        double minLng = longitudes[0], maxLng = longitudes[0];
+        for (int i = 1; i < latitudes.length; i++) {
+            minLat = Math.min(minLat, latitudes[i]);
+            maxLat = Math.max(maxLat, latitudes[i]);
+            minLng = Math.min(minLng, longitudes[i]);
+            maxLng = Math.max(maxLng, longitudes[i]);
+        }
+        minLatitude = minLat;
+        maxLatitude = maxLat;
+        minLongitude = minLng;
+        maxLongitude = maxLng;
+
+        // Circle around the centre of the bounding box through the farthest corner.
+        centerLatitude = (minLat + maxLat) / 2;
+        centerLongitude = (minLng + maxLng) / 2;
+
+        double farthest = 0;
+        for (int i = 0; i < latitudes.length; i++) {
+            farthest = Math.max(farthest, distance(centerLatitude, centerLongitude, latitudes[i], longitudes[i]));
+        }
+        radius = (float) Math.ceil(farthest);
+    }
+
+    /**
+     * Checks if a location is inside the polygon, without allocating.
+     *
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @return true if inside.
+     */
+    public boolean contains(double latitude, double longitude) {
+
+        // Outside the bounding box.
+        if (latitude < minLatitude || latitude > maxLatitude || longitude < minLongitude || longitude > maxLongitude) {
+            return false;
+        }
+
+        // Count the edges crossed by a ray from the location towards increasing longitude.
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)) {
+                double crossing = longitudes[i] + (longitudes[j] - longitudes[i])
+                        * (latitude - latitudes[i]) / (latitudes[j] - latitudes[i]);
+                if (longitude < crossing) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return Number of corners.
+     */
+    public int size() {
+        return latitudes.length;
+    }
+
+    public double getLatitude(int corner) {
+        return latitudes[corner];
+    }
+    public double getLongitude(int corner) {
+        return longitudes[corner];
+    }
+    public double getCenterLatitude() {
+        return centerLatitude;
+    }
+    public double getCenterLongitude() {
+        return centerLongitude;
+    }
+
+    /**
+     * @return Radius of the enclosing circle in meters.
+     */
+    public float getRadius() {
+        return radius;
+    }
+
+    /**
+     * Writes the corners as "lat,lng;lat,lng;...", at full precision.
+     *
+     * @return The corners.
+     */
+    public String encode() {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < latitudes.length; i++) {
+            if (i > 0) {
+                builder.append(';');
+            }
+            builder.append(latitudes[i]).append(',').append(longitudes[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads corners written by encode().
+     *
+     * @param corners The corners, or null.
+     * @return The polygon, or null if there are fewer than 3 valid corners.
+     */
+    public static GeofencePolygon decode(String corners) {
+
+        if (corners == null || corners.isEmpty()) {
+            return null;
+        }
+
+        String[] points = corners.split(";");
+        double[] latitudes = new double[points.length];
+        double[] longitudes = new double[points.length];
+
+        try {
+            for (int i = 0; i < points.length; i++) {
+                String[] point = points[i].split(",");
+                latitudes[i] = Double.parseDouble(point[0]);
+                longitudes[i] = Double.parseDouble(point[1]);
+            }
+            return new GeofencePolygon(latitudes, longitudes);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Gets the great-circle distance between two locations.
+     *
+     * @return Distance in meters.
+     */
+    private static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+
+        double dLat = Math.toRadians(latitude2 - latitude1);
+        double dLng = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(a, 1)));
+    }
+}
@@ -0,0 +1,585 @@
+package net.davidnorton.securityapp.trigger;
+
+import android.Manifest;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+
+import net.davidnorton.securityapp.services.TriggerMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers geo-fences with the Google Location API for the whole app,
+ * through a single GoogleApiClient.
+ *
+ * Geo-fences registered and unregistered are collected and submitted
+ * together once the main thread gets to them, as one request to remove and
+ * one to add, so refreshing all location triggers connects once instead of
+ * once per trigger. A later change to the same geo-fence replaces an earlier
+ * one still waiting. Geo-fences the Google Location API refuses are kept and
+ * submitted again with the next batch.
+ *
+ * If "local_geofences" is enabled in the advanced settings, the geo-fences
+ * are tracked on the device by a GeofenceTracker instead, fed by batched
+ * location updates through the LocalGeofenceReceiver. This isn't limited to
+ * the 100 geo-fences the Google Location API allows. The geo-fences are
+ * moved over when the setting changes.
+ *
+ * Otherwise polygon geo-fences are registered with the Google Location API
+ * as their enclosing circle. While the device is inside the circle the
+ * polygon is tracked on the device the same way, so entering the circle
+ * outside the polygon doesn't count as entering it.
+ *
+ * @author David Norton
+ */
+public final class GeofenceRegistrar implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+
+    private final static String TAG = "GeofenceRegistrar";
+
+    // Broadcast for entering or leaving geo-fences.
+    public static final String ACTION_LOCATION_CHANGE = "net.davidnorton.securityapp.trigger.location_change";
+
+    // Transition and geo-fence IDs, sent with location changes found on the device.
+    public static final String EXTRA_TRANSITION = "net.davidnorton.securityapp.trigger.transition";
+    public static final String EXTRA_GEOFENCE_IDS = "net.davidnorton.securityapp.trigger.geofence_ids";
+
+    // Setting to track geo-fences on the device.
+    public static final String PREF_LOCAL_GEOFENCES = "local_geofences";
+
+    // Batched location updates for geo-fences tracked on the device.
+    private static final long UPDATE_INTERVAL = 60 * 1000;
+    private static final long FASTEST_UPDATE_INTERVAL = 30 * 1000;
+    private static final long MAX_UPDATE_WAIT = 5 * 60 * 1000;
+
+    private static GeofenceRegistrar instance;
+
+    private final Context context;
+    private final GoogleApiClient client;
+    private final SimpleGeofenceStore geofenceStorage;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Changes and callbacks waiting for the next batch.
+    private final Map<String, SimpleGeofence> pendingAdds = new LinkedHashMap<>();
+    private final Set<String> pendingRemoves = new LinkedHashSet<>();
+    private final List<Callback> pendingCallbacks = new ArrayList<>();
+    private boolean submitPosted;
+
+    // Only used on the main thread.
+    private boolean batchInProgress;
+    private final Map<String, SimpleGeofence> registered = new LinkedHashMap<>();
+    private final Map<String, SimpleGeofence> failedAdds = new LinkedHashMap<>();
+    private final GeofenceTracker tracker = new GeofenceTracker();
+    private boolean local;
+    private boolean locationUpdates;
+
+    /**
+     * Receives the result of a batch on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * @param success true if all changes of the batch were accepted.
+         */
+        void onComplete(boolean success);
+    }
+
+    private GeofenceRegistrar(Context context) {
+
+        this.context = context;
+        geofenceStorage = SimpleGeofenceStore.getInstance(context);
+
+        client = new GoogleApiClient.Builder(context)
+                .addApi(LocationServices.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    /**
+     * Gets the registrar shared by the whole app.
+     *
+     * @param context Context.
+     * @return The registrar.
+     */
+    public static synchronized GeofenceRegistrar getInstance(Context context) {
+
+        if (instance == null) {
+            instance = new GeofenceRegistrar(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Saves a geo-fence to the store and registers it with the next batch.
+     *
+     * @param geofence Geo-fence to be registered.
+     */
+    public void register(SimpleGeofence geofence) {
+
+        geofenceStorage.setGeofence(geofence.getId(), geofence);
+        registerExisting(geofence);
+    }
+
+    /**
+     * Registers a geo-fence already in the store with the next batch.
+     *
+     * @param geofence Geo-fence to be registered.
+     */
+    public void registerExisting(SimpleGeofence geofence) {
+
+        synchronized (this) {
+            pendingRemoves.remove(geofence.getId());
+            pendingAdds.put(geofence.getId(), geofence);
+        }
+        scheduleSubmit();
+    }
+
+    /**
+     * Unregisters a geo-fence with the next batch.
+     *
+     * @param id The id of the geo-fence to unregister.
+     */
+    public void unregister(String id) {
+
+        synchronized (this) {
+            pendingAdds.remove(id);
+            pendingRemoves.add(id);
+        }
+        scheduleSubmit();
+    }
+
+    /**
+     * Calls back once the changes made so far are submitted.
+     *
+     * @param callback Callback.
+     */
+    public void submit(Callback callback) {
+
+        synchronized (this) {
+            pendingCallbacks.add(callback);
+        }
+        scheduleSubmit();
+    }
+
+    private synchronized void scheduleSubmit() {
+
+        if (!submitPosted) {
+            submitPosted = true;
+            handler.post(submitBatch);
+        }
+    }
+
+    /**
+     * Submits the waiting changes, connecting first if needed.
+     */
+    private final Runnable submitBatch = new Runnable() {
+        @Override
+        public void run() {
+
+            boolean useLocal = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_LOCAL_GEOFENCES, false);
+
+            synchronized (GeofenceRegistrar.this) {
+                submitPosted = false;
+                if (pendingAdds.isEmpty() && pendingRemoves.isEmpty() && pendingCallbacks.isEmpty() && useLocal == local
+                        && (tracker.size() > 0) == locationUpdates) {
+                    return;
+                }
+            }
+
+            // Submitted again when the current batch completes.
+            if (batchInProgress) {
+                return;
+            }
+
+            // If Google Play services are not available.
+            if (GooglePlayServicesUtil.isGooglePlayServicesAvailable(context) != ConnectionResult.SUCCESS) {
+                Log.e(TAG, "Google Play services not available");
+                failCallbacks();
+                return;
+            }
+
+            // Submitted when connected.
+            if (!client.isConnected()) {
+                if (!client.isConnecting()) {
+                    client.connect();
+                }
+                return;
+            }
+
+            Map<String, SimpleGeofence> changedAdds;
+            List<String> changedRemoves;
+            List<Callback> callbacks;
+
+            synchronized (GeofenceRegistrar.this) {
+                changedAdds = new LinkedHashMap<>(pendingAdds);
+                changedRemoves = new ArrayList<>(pendingRemoves);
+                callbacks = new ArrayList<>(pendingCallbacks);
+                pendingAdds.clear();
+                pendingRemoves.clear();
+                pendingCallbacks.clear();
+            }
+
+            // Retry the geo-fences that failed to register.
+            for (SimpleGeofence geofence : failedAdds.values()) {
+                if (!changedAdds.containsKey(geofence.getId()) && !changedRemoves.contains(geofence.getId())) {
+                    changedAdds.put(geofence.getId(), geofence);
+                }
+            }
+            failedAdds.clear();
+
+            List<Geofence> adds = new ArrayList<>();
+            List<String> removes = new ArrayList<>();
+
+            // Move every geo-fence over if the setting changed.
+            if (useLocal != local) {
+                if (local) {
+                    tracker.clear();
+                } else {
+                    removes.addAll(registered.keySet());
+                }
+                for (SimpleGeofence geofence : registered.values()) {
+                    if (!changedAdds.containsKey(geofence.getId()) && !changedRemoves.contains(geofence.getId())) {
+                        changedAdds.put(geofence.getId(), geofence);
+                    }
+                }
+                local = useLocal;
+            }
+
+            for (String id : changedRemoves) {
+                registered.remove(id);
+            }
+
+            // Geo-fences added to the Google Location API are only recorded once the request succeeds.
+            Map<String, SimpleGeofence> requestedAdds = new LinkedHashMap<>();
+
+            if (local) {
+                registered.putAll(changedAdds);
+                for (String id : changedRemoves) {
+                    tracker.remove(id);
+                }
+                for (SimpleGeofence geofence : changedAdds.values()) {
+                    tracker.put(geofence);
+                }
+            } else {
+                removes.addAll(changedRemoves);
+                for (SimpleGeofence geofence : changedAdds.values()) {
+                    adds.add(geofence.toGeofence());
+                }
+                requestedAdds.putAll(changedAdds);
+
+                // Stop tracking changed polygons, they are entered again once registered.
+                for (String id : changedRemoves) {
+                    tracker.remove(id);
+                }
+                for (String id : changedAdds.keySet()) {
+                    tracker.remove(id);
+                }
+            }
+
+            // Location updates are only needed while geo-fences are tracked on the device.
+            boolean updates = tracker.size() > 0;
+            boolean updatesChanged = updates != locationUpdates;
+
+            Batch batch = new Batch(callbacks, requestedAdds, (removes.isEmpty() ? 0 : 1) + (adds.isEmpty() ? 0 : 1) + (updatesChanged ? 1 : 0));
+            batchInProgress = true;
+
+            if (!removes.isEmpty()) {
+                LocationServices.GeofencingApi.removeGeofences(client, removes).setResultCallback(batch);
+            }
+
+            boolean permitted = ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+
+            if (!adds.isEmpty()) {
+                if (!permitted) {
+                    Log.e(TAG, "Location permission not granted");
+                    batch.addResult.onResult(new Status(CommonStatusCodes.ERROR));
+                } else {
+                    GeofencingRequest request = new GeofencingRequest.Builder()
+                            .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
+                            .addGeofences(adds)
+                            .build();
+                    LocationServices.GeofencingApi.addGeofences(client, request, getPendingIntent()).setResultCallback(batch.addResult);
+                }
+            }
+
+            if (updatesChanged) {
+                if (!updates) {
+                    LocationServices.FusedLocationApi.removeLocationUpdates(client, getLocationPendingIntent()).setResultCallback(batch);
+                    locationUpdates = false;
+                } else if (!permitted) {
+                    Log.e(TAG, "Location permission not granted");
+                    batch.onResult(new Status(CommonStatusCodes.ERROR));
+                } else {
+                    LocationRequest request = LocationRequest.create()
+                            .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                            .setInterval(UPDATE_INTERVAL)
+                            .setFastestInterval(FASTEST_UPDATE_INTERVAL)
+                            .setMaxWaitTime(MAX_UPDATE_WAIT);
+                    LocationServices.FusedLocationApi.requestLocationUpdates(client, request, getLocationPendingIntent()).setResultCallback(batch);
+                    locationUpdates = true;
+                }
+            }
+
+            Log.i(TAG, "Submitted geofences" + (local ? " (on device): " : ": ") + changedAdds.size() + " added, " + changedRemoves.size() + " removed");
+
+            // Nothing to wait for.
+            if (removes.isEmpty() && adds.isEmpty() && !updatesChanged) {
+                batch.complete();
+            }
+        }
+    };
+
+    /**
+     * Collects the results of the requests of a batch.
+     */
+    private final class Batch implements ResultCallback<Status> {
+
+        private final List<Callback> callbacks;
+        private final Map<String, SimpleGeofence> adds;
+        private int outstanding;
+        private boolean success = true;
+
+        Batch(List<Callback> callbacks, Map<String, SimpleGeofence> adds, int outstanding) {
+            this.callbacks = callbacks;
+            this.adds = adds;
+            this.outstanding = outstanding;
+        }
+
+        /**
+         * Records the geo-fences added once the request succeeds, or keeps
+         * them to retry with the next batch.
+         */
+        final ResultCallback<Status> addResult = new ResultCallback<Status>() {
+            @Override
+            public void onResult(@NonNull Status status) {
+
+                if (status.isSuccess()) {
+                    registered.putAll(adds);
+                } else {
+                    for (String id : adds.keySet()) {
+                        registered.remove(id);
+                    }
+                    failedAdds.putAll(adds);
+                }
+                Batch.this.onResult(status);
+            }
+        };
+
+        @Override
+        public void onResult(@NonNull Status status) {
+
+            if (!status.isSuccess()) {
+                Log.e(TAG, "Geofence request failed: " + status);
+                success = false;
+            }
+
+            if (--outstanding == 0) {
+                complete();
+            }
+        }
+
+        void complete() {
+
+            batchInProgress = false;
+
+            for (Callback callback : callbacks) {
+                callback.onComplete(success);
+            }
+
+            // Submit changes made while waiting.
+            scheduleSubmit();
+        }
+    }
+
+    /**
+     * Creates a pending intent for location changes.
+     *
+     * @return The pending intent.
+     */
+    private PendingIntent getPendingIntent() {
+
+        Intent intent = new Intent();
+        intent.setAction(ACTION_LOCATION_CHANGE);
+
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Creates a pending intent for the location updates of the geo-fences tracked on the device.
+     *
+     * @return The pending intent.
+     */
+    private PendingIntent getLocationPendingIntent() {
+
+        Intent intent = new Intent(context, LocalGeofenceReceiver.class);
+
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Broadcasts the geo-fences entered and left on the device as location changes.
+     */
+    private final GeofenceTracker.Listener broadcaster = new GeofenceTracker.Listener() {
+        @Override
+        public void onTransition(int transition, String[] ids) {
+
+            Intent change = new Intent(ACTION_LOCATION_CHANGE);
+            change.putExtra(EXTRA_TRANSITION, transition);
+            change.putExtra(EXTRA_GEOFENCE_IDS, ids);
+            context.sendBroadcast(change);
+        }
+    };
+
+    /**
+     * Moves the device through the geo-fences tracked on the device, must
+     * be called on the main thread.
+     *
+     * @param location Location of the device.
+     */
+    void track(Location location) {
+
+        long start = System.nanoTime();
+        tracker.update(location.getLatitude(), location.getLongitude(), broadcaster);
+        TriggerMetrics.localGeofenceTime.recordSince(start);
+    }
+
+    /**
+     * @return Number of geo-fences tracked on the device.
+     */
+    int trackedCount() {
+        return tracker.size();
+    }
+
+    /**
+     * Refines a transition of a polygon geo-fence reported by the Google
+     * Location API, must be called on the main thread. Entering its circle
+     * starts tracking the polygon on the device, and leaving it stops.
+     *
+     * @param id ID of the geo-fence.
+     * @param transition Geofence.GEOFENCE_TRANSITION_ENTER or GEOFENCE_TRANSITION_EXIT.
+     * @param location Location that triggered the transition, or null.
+     * @return true if the transition is reported by the device instead.
+     */
+    public boolean refine(String id, int transition, Location location) {
+
+        SimpleGeofence geofence = getGeofence(id);
+        if (local || geofence == null || geofence.getPolygon() == null) {
+            return false;
+        }
+
+        String areaId = SimpleGeofence.getAreaId(id);
+        String[] areaIds = { areaId, areaId + SimpleGeofence.EXIT_SUFFIX };
+
+        if (transition == Geofence.GEOFENCE_TRANSITION_ENTER) {
+            for (String fenceId : areaIds) {
+                SimpleGeofence fence = getGeofence(fenceId);
+                if (fence != null) {
+                    tracker.put(fence);
+                }
+            }
+            if (location != null) {
+                track(location);
+            }
+            scheduleSubmit();
+            return true;
+        }
+
+        // Leaving the circle leaves the polygon too.
+        for (String fenceId : areaIds) {
+            tracker.remove(fenceId);
+        }
+        scheduleSubmit();
+        return false;
+    }
+
+    /**
+     * Gets a registered geo-fence, or the stored one if it wasn't submitted
+     * since the app started.
+     *
+     * @param id ID of the geo-fence.
+     * @return The geo-fence, or null if unknown.
+     */
+    private SimpleGeofence getGeofence(String id) {
+
+        SimpleGeofence geofence = registered.get(id);
+        return geofence != null ? geofence : geofenceStorage.getGeofence(id);
+    }
+
+    /**
+     * Moves the geo-fences over after the "local_geofences" setting changed.
+     */
+    public void settingChanged() {
+        scheduleSubmit();
+    }
+
+    /**
+     * Fails the waiting callbacks, the waiting changes are kept for the next batch.
+     */
+    private void failCallbacks() {
+
+        List<Callback> callbacks;
+        synchronized (this) {
+            callbacks = new ArrayList<>(pendingCallbacks);
+            pendingCallbacks.clear();
+        }
+
+        for (Callback callback : callbacks) {
+            callback.onComplete(false);
+        }
+    }
+
+    /**
+     * Submits the waiting changes once connected.
+     *
+     * @param bundle Bundle.
+     */
+    @Override
+    public void onConnected(Bundle bundle) {
+
+        Log.i(TAG, "Connected to location services");
+        scheduleSubmit();
+    }
+
+    /**
+     * The client reconnects by itself, waiting changes are submitted then.
+     *
+     * @param cause Cause.
+     */
+    @Override
+    public void onConnectionSuspended(int cause) {
+        Log.i(TAG, "Connection suspended: " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+
+        Log.e(TAG, "Connection failed: " + result);
+        failCallbacks();
+    }
+}
@@ -0,0 +1,129 @@
+package net.davidnorton.securityapp.trigger;
+
+import com.google.android.gms.location.Geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows the device through the geo-fences of a GeofenceIndex, one
+ * location at a time, and reports entering and leaving them the way the
+ * Google Location API does: only for the transitions each geo-fence was
+ * registered for, and entering as soon as a new geo-fence contains the
+ * device.
+ *
+ * Not thread safe.
+ *
+ * @author David Norton
+ */
+public final class GeofenceTracker {
+
+    private final GeofenceIndex index = new GeofenceIndex();
+
+    // Geo-fences the device is inside.
+    private final List<GeofenceIndex.Circle> inside = new ArrayList<>();
+
+    // Reused for every location.
+    private final List<GeofenceIndex.Circle> found = new ArrayList<>();
+    private final List<String> entered = new ArrayList<>();
+    private final List<String> left = new ArrayList<>();
+    private int location;
+
+    /**
+     * Receives the geo-fences entered or left at a location.
+     */
+    public interface Listener {
+
+        /**
+         * @param transition Geofence.GEOFENCE_TRANSITION_ENTER or GEOFENCE_TRANSITION_EXIT.
+         * @param ids IDs of the geo-fences.
+         */
+        void onTransition(int transition, String[] ids);
+    }
+
+    /**
+     * Adds a geo-fence, replacing the geo-fence with the same ID. The device
+     * is outside it until the next location.
+     *
+     * @param geofence Geo-fence to add.
+     */
+    public void put(SimpleGeofence geofence) {
+
+        inside.remove(index.remove(geofence.getId()));
+        index.put(geofence);
+    }
+
+    /**
+     * Removes a geo-fence without reporting leaving it.
+     *
+     * @param id ID of the geo-fence.
+     */
+    public void remove(String id) {
+        inside.remove(index.remove(id));
+    }
+
+    /**
+     * Removes every geo-fence.
+     */
+    public void clear() {
+
+        index.clear();
+        inside.clear();
+    }
+
+    /**
+     * @return Number of geo-fences tracked.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Moves the device to a location and reports the geo-fences entered,
+     * then the geo-fences left.
+     *
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @param listener Listener.
+     */
+    public void update(double latitude, double longitude, Listener listener) {
+
+        location++;
+        found.clear();
+        index.query(latitude, longitude, found);
+
+        // Geo-fences containing the location.
+        for (int i = 0; i < found.size(); i++) {
+            GeofenceIndex.Circle circle = found.get(i);
+            circle.seen = location;
+            if (!circle.inside) {
+                circle.inside = true;
+                inside.add(circle);
+                if ((circle.transitions & Geofence.GEOFENCE_TRANSITION_ENTER) != 0) {
+                    entered.add(circle.id);
+                }
+            }
+        }
+
+        // Geo-fences the device was inside that no longer contain it.
+        for (int i = inside.size() - 1; i >= 0; i--) {
+            GeofenceIndex.Circle circle = inside.get(i);
+            if (circle.seen != location) {
+                circle.inside = false;
+                inside.remove(i);
+                if ((circle.transitions & Geofence.GEOFENCE_TRANSITION_EXIT) != 0) {
+                    left.add(circle.id);
+                }
+            }
+        }
+
+        if (!entered.isEmpty()) {
+            listener.onTransition(Geofence.GEOFENCE_TRANSITION_ENTER, entered.toArray(new String[entered.size()]));
+            entered.clear();
+        }
+        if (!left.isEmpty()) {
+            listener.onTransition(Geofence.GEOFENCE_TRANSITION_EXIT, left.toArray(new String[left.size()]));
+            left.clear();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.davidnorton.securityapp.trigger;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationResult;
+
+import net.davidnorton.securityapp.services.EventLog;
+
+import java.util.List;
+
+/**
+ * Receives batched location updates while geo-fences are tracked on the
+ * device, and passes them to the GeofenceRegistrar, which broadcasts the
+ * geo-fences entered and left as location changes.
+ *
+ * @author David Norton
+ */
+public class LocalGeofenceReceiver extends BroadcastReceiver {
+
+    private final static String TAG = "LocalGeofenceReceiver";
+
+    // Locations less accurate than this are ignored, so a poor fix doesn't leave a geo-fence.
+    private static final float MAX_ACCURACY = 250;
+
+    /**
+     * Moves the device through the tracked geo-fences, one location of the batch at a time.
+     *
+     * @param context Context.
+     * @param intent Intent.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+
+        if (!LocationResult.hasResult(intent)) {
+            return;
+        }
+
+        List<Location> locations = LocationResult.extractResult(intent).getLocations();
+        GeofenceRegistrar registrar = GeofenceRegistrar.getInstance(context);
+
+        for (Location location : locations) {
+
+            // Skip inaccurate locations.
+            if (location.hasAccuracy() && location.getAccuracy() > MAX_ACCURACY) {
+                continue;
+            }
+
+            registrar.track(location);
+        }
+
+        if (EventLog.isDebug()) {
+            Log.i(TAG, locations.size() + " locations tested against " + registrar.trackedCount() + " geofences");
+        }
+    }
+}
@@ -26,6 +26,8 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
@@ -35,9 +37,13 @@ import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.PolygonOptions;
 
 import net.davidnorton.securityapp.R;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Allows user to set geo-fences.
  *
@@ -54,6 +60,10 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
 	private int radius;
 	private boolean normView = true;
 
+    // Corners of an area drawn instead of a circle.
+    private final List<LatLng> area = new ArrayList<>();
+    private boolean drawArea = false;
+
     // Preference Settings.
     private ColorFilter filter;
 
@@ -191,22 +201,42 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
 
                 preferencesChanged = false;
 
+                GeofencePolygon polygon = GeofencePolygon.decode(pref.getString("geofence_polygon", ""));
+                LatLng center;
+
+                // Get saved area.
+                if (polygon != null) {
+
+                    area.clear();
+                    for (int i = 0; i < polygon.size(); i++) {
+                        area.add(new LatLng(polygon.getLatitude(i), polygon.getLongitude(i)));
+                    }
+                    setDrawArea(true);
+                    showArea();
+
+                    center = new LatLng(polygon.getCenterLatitude(), polygon.getCenterLongitude());
+
                 // Get saved geo-fence details.
-                point = new LatLng(pref.getFloat("geofence_lat", 0), pref.getFloat("geofence_lng", 0));
-                radius = pref.getInt("geofence_radius", 50);
-                editRadius.setText(String.valueOf(radius));
+                } else {
 
-                geoMap.clear();
+                    point = new LatLng(SimpleGeofenceStore.getCoordinate(pref, "geofence_lat", 0), SimpleGeofenceStore.getCoordinate(pref, "geofence_lng", 0));
+                    radius = pref.getInt("geofence_radius", 50);
+                    editRadius.setText(String.valueOf(radius));
 
-                // Set and display visual for selected location.
-                geoMap.addMarker(new MarkerOptions().position(point));
-                if (radius > 0) {
-                    geoMap.addCircle(new CircleOptions().radius(radius).center(point).fillColor(0x5533B5E5).strokeColor(0xEE33B5E5).strokeWidth(2));
+                    geoMap.clear();
+
+                    // Set and display visual for selected location.
+                    geoMap.addMarker(new MarkerOptions().position(point));
+                    if (radius > 0) {
+                        geoMap.addCircle(new CircleOptions().radius(radius).center(point).fillColor(0x5533B5E5).strokeColor(0xEE33B5E5).strokeWidth(2));
+                    }
+
+                    center = point;
                 }
 
                 // Set camera over drawn geo-fence.
-                geoMap.animateCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(point.latitude, point.longitude), 15));
-                CameraPosition cameraPosition = new CameraPosition.Builder().target(new LatLng(point.latitude, point.longitude)).zoom(15).build();
+                geoMap.animateCamera(CameraUpdateFactory.newLatLngZoom(center, 15));
+                CameraPosition cameraPosition = new CameraPosition.Builder().target(center).zoom(15).build();
                 geoMap.animateCamera(CameraUpdateFactory.newCameraPosition(cameraPosition));
 
                 // Create a new geo-fence.
@@ -284,6 +314,10 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
 		MenuItem itemSat = menu.findItem(R.id.map_change_sat);
 		MenuItem itemNormal = menu.findItem(R.id.map_change_norm);
 
+        // Display the option to draw the other shape.
+        menu.findItem(R.id.map_draw_area).setVisible(!drawArea);
+        menu.findItem(R.id.map_draw_circle).setVisible(drawArea);
+
 		// If current view is normal, display sat option.
 		if (normView) {
             itemSat.setVisible(true);
@@ -325,21 +359,53 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
         } else if (item.getItemId() == R.id.map_change_norm) {
             geoMap.setMapType(GoogleMap.MAP_TYPE_NORMAL);
             normView = false;
+        // If drawing an area or a circle was selected.
+        } else if (item.getItemId() == R.id.map_draw_area || item.getItemId() == R.id.map_draw_circle) {
+            if (geoMap != null) {
+                geoMap.clear();
+            }
+            point = null;
+            area.clear();
+            setDrawArea(item.getItemId() == R.id.map_draw_area);
+            preferencesChanged = true;
         // If save was selected.
         } else if (item.getItemId() == R.id.save_location) {
 
-			SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
+			// Keep the saved geo-fence until the area has enough corners.
+			if (drawArea && !area.isEmpty() && area.size() < 3) {
+				Toast.makeText(this, R.string.trigger_toast_area_incomplete, Toast.LENGTH_SHORT).show();
+				return true;
+			}
 
+			SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
+			SharedPreferences.Editor editor = pref.edit();
+
+			// Define new area, registered as the circle enclosing it.
+			if (drawArea && area.size() >= 3) {
+				double[] latitudes = new double[area.size()];
+				double[] longitudes = new double[area.size()];
+				for (int i = 0; i < area.size(); i++) {
+					latitudes[i] = area.get(i).latitude;
+					longitudes[i] = area.get(i).longitude;
+				}
+				GeofencePolygon polygon = new GeofencePolygon(latitudes, longitudes);
+
+				SimpleGeofenceStore.putCoordinate(editor, "geofence_lat", polygon.getCenterLatitude());
+				SimpleGeofenceStore.putCoordinate(editor, "geofence_lng", polygon.getCenterLongitude());
+				editor.putInt("geofence_radius", (int) Math.ceil(polygon.getRadius()));
+				editor.putString("geofence_polygon", polygon.encode()).apply();
 			// If no geo-fence defined.
-			if (point == null) {
-				pref.edit().putFloat("geofence_lat", 0F).apply();
-				pref.edit().putFloat("geofence_lng", 0F).apply();
-				pref.edit().putInt("geofence_radius", -1).apply();
+			} else if (point == null || drawArea) {
+				SimpleGeofenceStore.putCoordinate(editor, "geofence_lat", 0);
+				SimpleGeofenceStore.putCoordinate(editor, "geofence_lng", 0);
+				editor.putInt("geofence_radius", -1);
+				editor.putString("geofence_polygon", "").apply();
 			// Define new geo-fence.
             } else {
-				pref.edit().putFloat("geofence_lat", (float) point.latitude).apply();
-				pref.edit().putFloat("geofence_lng", (float) point.longitude).apply();
-				pref.edit().putInt("geofence_radius", radius).apply();
+				SimpleGeofenceStore.putCoordinate(editor, "geofence_lat", point.latitude);
+				SimpleGeofenceStore.putCoordinate(editor, "geofence_lng", point.longitude);
+				editor.putInt("geofence_radius", radius);
+				editor.putString("geofence_polygon", "").apply();
 			}
 			this.finish();
 		}
@@ -407,6 +473,7 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
             geoMap.clear();
 			point = null;
 			radius = -1;
+			area.clear();
 
             // Set radius value back to default.
 			EditText editRadius = (EditText) findViewById(R.id.radius_selection);
@@ -416,6 +483,38 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
 		}
 	}
 
+    /**
+     * Switches between drawing an area and a circle, the radius is only used for a circle.
+     *
+     * @param drawArea true to draw an area.
+     */
+    private void setDrawArea(boolean drawArea) {
+
+        this.drawArea = drawArea;
+
+        TextView message = (TextView) findViewById(R.id.radius_selection_message);
+        message.setText(drawArea ? R.string.trigger_pref_map_area : R.string.trigger_pref_map_radius);
+        findViewById(R.id.radius_selection).setVisibility(drawArea ? View.GONE : View.VISIBLE);
+
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Draws the corners of the area, and the area once it has three.
+     */
+    private void showArea() {
+
+        geoMap.clear();
+
+        for (LatLng corner : area) {
+            geoMap.addMarker(new MarkerOptions().position(corner));
+        }
+
+        if (area.size() >= 3) {
+            geoMap.addPolygon(new PolygonOptions().addAll(area).fillColor(0x5533B5E5).strokeColor(0xEE33B5E5).strokeWidth(2));
+        }
+    }
+
     /**
      * Draws the geo-fence on the map where selected using the radius in the text field.
      *
@@ -424,6 +523,16 @@ public class MapViewActivity extends Activity implements GoogleMap.OnMapLongClic
     @Override
     public void onMapLongClick(LatLng latLngPoint) {
 
+        // Add a corner to the area.
+        if (drawArea) {
+            area.add(latLngPoint);
+            if (geoMap != null) {
+                showArea();
+            }
+            preferencesChanged = true;
+            return;
+        }
+
         point = latLngPoint;
         EditText editRadius = (EditText) findViewById(R.id.radius_selection);
 
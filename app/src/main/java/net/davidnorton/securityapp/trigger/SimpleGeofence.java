@@ -7,12 +7,16 @@ import com.google.android.gms.location.Geofence;
  */
 public class SimpleGeofence {
 
+	// Suffix of the ID of the geo-fence registered for leaving a trigger's area.
+	public static final String EXIT_SUFFIX = "_exit";
+
 	private final String mId;
 	private final double mLatitude;
 	private final double mLongitude;
 	private final float mRadius;
 	private final long mExpirationDuration;
 	private final int mTransitionType;
+	private final GeofencePolygon mPolygon;
 
     /**
      * Initialize geo-fence.
@@ -25,6 +29,22 @@ public class SimpleGeofence {
      * @param transition Type of transition.
      */
 	public SimpleGeofence(String geofenceId, double latitude, double longitude, float radius, long expiration, int transition) {
+		this(geofenceId, latitude, longitude, radius, expiration, transition, null);
+	}
+
+    /**
+     * Initialize a geo-fence covering a polygon, with the circle enclosing it.
+     *
+     * @param geofenceId Request ID.
+     * @param polygon Area of the geo-fence.
+     * @param expiration Expiration duration.
+     * @param transition Type of transition.
+     */
+	public SimpleGeofence(String geofenceId, GeofencePolygon polygon, long expiration, int transition) {
+		this(geofenceId, polygon.getCenterLatitude(), polygon.getCenterLongitude(), polygon.getRadius(), expiration, transition, polygon);
+	}
+
+	private SimpleGeofence(String geofenceId, double latitude, double longitude, float radius, long expiration, int transition, GeofencePolygon polygon) {
 
 		this.mId = geofenceId;
 		this.mLatitude = latitude;
@@ -32,9 +52,25 @@ public class SimpleGeofence {
 		this.mRadius = radius;
 		this.mExpirationDuration = expiration;
 		this.mTransitionType = transition;
+		this.mPolygon = polygon;
 	}
 
 
+	/**
+	 * Gets the ID of the area a geo-fence belongs to, which is the ID of the
+	 * geo-fence for entering it.
+	 *
+	 * @param geofenceId Request ID.
+	 * @return ID of the area.
+	 */
+	public static String getAreaId(String geofenceId) {
+
+		if (geofenceId.endsWith(EXIT_SUFFIX)) {
+			return geofenceId.substring(0, geofenceId.length() - EXIT_SUFFIX.length());
+		}
+		return geofenceId;
+	}
+
 	public String getId() {
 		return mId;
 	}
@@ -54,6 +90,13 @@ public class SimpleGeofence {
 		return mTransitionType;
 	}
 
+	/**
+	 * @return Polygon inside the circle, or null if the geo-fence is the circle.
+	 */
+	public GeofencePolygon getPolygon() {
+		return mPolygon;
+	}
+
 	/**
 	 * Creates a Location Services Geofence object from a SimpleGeofence.
 	 * 
@@ -61,7 +104,8 @@ public class SimpleGeofence {
 	 */
 
     /**
-     * Create a Location Services Geofence object from a SimpleGeofence.
+     * Create a Location Services Geofence object from a SimpleGeofence. A
+     * polygon is registered as the circle enclosing it.
      *
      * @return A geo-fence object.
      */
@@ -1,155 +1,330 @@
 package net.davidnorton.securityapp.trigger;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Stores geo-fences in the shared preferences.
- * 
+ * Stores geo-fences in a database, one row each with the full precision
+ * of their coordinates, and the corners of polygon geo-fences.
+ *
+ * All geo-fences are read with a single query the first time one is needed
+ * and kept in memory, so looking one up doesn't touch the database. Writes go
+ * to both.
+ *
  * @author David Norton
- * 
+ *
  */
-public class SimpleGeofenceStore {
+public class SimpleGeofenceStore extends SQLiteOpenHelper {
 
-	private final static String TAG = "SimpleGeofenceStore";
+    private final static String TAG = "SimpleGeofenceStore";
 
-	// Keys for flattened geo-fences stored in SharedPreferences.
-	private static final String KEY_LATITUDE = "net.davidnorton.securityapp.geofence.KEY_LATITUDE";
-	private static final String KEY_LONGITUDE = "net.davidnorton.securityapp.geofence.KEY_LONGITUDE";
-	private static final String KEY_RADIUS = "net.davidnorton.securityapp.geofence.KEY_RADIUS";
-	private static final String KEY_EXPIRATION_DURATION = "net.davidnorton.securityapp.geofence.KEY_EXPIRATION_DURATION";
-	private static final String KEY_TRANSITION_TYPE = "net.davidnorton.securityapp.geofence.KEY_TRANSITION_TYPE";
+    private static final String DATABASE = "geofences.db";
+    private static final int DATABASE_VERSION = 2;
 
-	// The prefix for flattened geofence keys
-	private static final String KEY_PREFIX = "net.davidnorton.securityapp.geofence.KEY";
+    private static final String TABLE = "geofences";
+    private static final String ID = "id";
+    private static final String LATITUDE = "latitude";
+    private static final String LONGITUDE = "longitude";
+    private static final String RADIUS = "radius";
+    private static final String EXPIRATION_DURATION = "expiration_duration";
+    private static final String TRANSITION_TYPE = "transition_type";
+    private static final String POLYGON = "polygon";
 
-	// Invalid values to test geo-fence storage when retrieving geo-fences.
-	private static final long INVALID_LONG_VALUE = -999L;
-	private static final float INVALID_FLOAT_VALUE = -999.0f;
-	private static final int INVALID_INT_VALUE = -999;
+    private static final String[] COLUMNS = { ID, LATITUDE, LONGITUDE, RADIUS, EXPIRATION_DURATION, TRANSITION_TYPE, POLYGON };
 
-	// The SharedPreferences object that stores geo-fences.
-	private final SharedPreferences mPrefs;
+    // Keys for flattened geo-fences stored in SharedPreferences before the database, imported when it is created.
+    private static final String KEY_LATITUDE = "net.davidnorton.securityapp.geofence.KEY_LATITUDE";
+    private static final String KEY_LONGITUDE = "net.davidnorton.securityapp.geofence.KEY_LONGITUDE";
+    private static final String KEY_RADIUS = "net.davidnorton.securityapp.geofence.KEY_RADIUS";
+    private static final String KEY_EXPIRATION_DURATION = "net.davidnorton.securityapp.geofence.KEY_EXPIRATION_DURATION";
+    private static final String KEY_TRANSITION_TYPE = "net.davidnorton.securityapp.geofence.KEY_TRANSITION_TYPE";
 
-	// SharedPreferences name.
-	private static final String SHARED_PREFERENCES = "geofences";
+    // The prefix for flattened geofence keys
+    private static final String KEY_PREFIX = "net.davidnorton.securityapp.geofence.KEY";
 
-	// Create the SharedPreferences storage with private access only.
-	public SimpleGeofenceStore(Context context) {
-		mPrefs = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
-	}
+    // SharedPreferences name.
+    private static final String SHARED_PREFERENCES = "geofences";
+
+    private static SimpleGeofenceStore instance;
+
+    private final Context context;
+
+    // Whether the SharedPreferences were imported into a new database, cleared once it is committed.
+    private boolean imported;
+
+    // All geo-fences by ID, read on first use.
+    private Map<String, SimpleGeofence> geofences;
+
+    private SimpleGeofenceStore(Context context) {
+        super(context, DATABASE, null, DATABASE_VERSION);
+        this.context = context;
+    }
 
     /**
-     * Returns a stored geo-fence by its ID, or returns null if not found.
-     *
-     * @param id  The ID of a stored geofence.
+     * Gets the store shared by the whole app.
      *
-     * @return A geo-fence defined by center and radius.
+     * @param context Context.
+     * @return The store.
      */
-	public SimpleGeofence getGeofence(String id) {
-
-        // Gets latitude by ID, or invalid value if it doesn't exist.
-		double lat = mPrefs.getFloat(getGeofenceFieldKey(id, KEY_LATITUDE), INVALID_FLOAT_VALUE);
+    public static synchronized SimpleGeofenceStore getInstance(Context context) {
 
-        // Gets longitude by ID, or invalid value if it doesn't exist.
-		double lng = mPrefs.getFloat(getGeofenceFieldKey(id, KEY_LONGITUDE), INVALID_FLOAT_VALUE);
+        if (instance == null) {
+            instance = new SimpleGeofenceStore(context.getApplicationContext());
+        }
+        return instance;
+    }
 
-        // Gets radius by ID, or invalid value if it doesn't exist.
-		float radius = mPrefs.getFloat(getGeofenceFieldKey(id, KEY_RADIUS), INVALID_FLOAT_VALUE);
+    /**
+     * Creates the table and imports the geo-fences stored in the shared preferences.
+     *
+     * @param db Database.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
 
-        // Gets expiration by ID, or invalid value if it doesn't exist.
-		long expirationDuration = mPrefs.getLong(getGeofenceFieldKey(id, KEY_EXPIRATION_DURATION), INVALID_LONG_VALUE);
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + ID + " TEXT PRIMARY KEY NOT NULL, "
+                + LATITUDE + " REAL NOT NULL, "
+                + LONGITUDE + " REAL NOT NULL, "
+                + RADIUS + " REAL NOT NULL, "
+                + EXPIRATION_DURATION + " INTEGER NOT NULL, "
+                + TRANSITION_TYPE + " INTEGER NOT NULL, "
+                + POLYGON + " TEXT)");
 
-        // Gets transition type by ID, or invalid value if it doesn't exist.
-		int transitionType = mPrefs.getInt(getGeofenceFieldKey(id, KEY_TRANSITION_TYPE), INVALID_INT_VALUE);
+        importPreferences(db);
+    }
 
-		// If no incorrect values return geo-fence object.
-		if (lat != GeofenceUtils.INVALID_FLOAT_VALUE
-				&& lng != GeofenceUtils.INVALID_FLOAT_VALUE
-				&& radius != GeofenceUtils.INVALID_FLOAT_VALUE
-				&& expirationDuration != GeofenceUtils.INVALID_LONG_VALUE
-				&& transitionType != GeofenceUtils.INVALID_INT_VALUE) {
+    /**
+     * Clears the imported shared preferences once the new database is committed.
+     *
+     * @param db Database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
 
-			return new SimpleGeofence(id, lat, lng, radius, expirationDuration, transitionType);
-		} else {
-			return null;
-		}
-	}
+        if (imported) {
+            context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE).edit().clear().apply();
+            imported = false;
+        }
+    }
 
     /**
-     * Saves the geo-fence in shared preferences.
+     * Adds the polygon column to databases created before it.
      *
-     * @param id The ID of a Geofence object
-     * @param geofence The SimpleGeofence containing the values to save in SharedPreferences.
+     * @param db Database.
+     * @param oldVersion Version of the database.
+     * @param newVersion Version wanted.
      */
-	public void setGeofence(String id, SimpleGeofence geofence) {
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
-		Editor editor = mPrefs.edit();
-
-		// Write the geo-fence values to SharedPreferences.
-		editor.putFloat(getGeofenceFieldKey(id, KEY_LATITUDE), (float) geofence.getLatitude());
-		editor.putFloat(getGeofenceFieldKey(id, KEY_LONGITUDE), (float) geofence.getLongitude());
-		editor.putFloat(getGeofenceFieldKey(id, KEY_RADIUS), geofence.getRadius());
-		editor.putLong(getGeofenceFieldKey(id, KEY_EXPIRATION_DURATION), geofence.getExpirationDuration());
-		editor.putInt(getGeofenceFieldKey(id, KEY_TRANSITION_TYPE), geofence.getTransitionType());
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + POLYGON + " TEXT");
+        }
+    }
 
-		// Commit the changes
-		editor.apply();
-		Log.i(TAG, "saved simple geofence");
-	}
+    /**
+     * Returns a stored geo-fence by its ID, or returns null if not found.
+     *
+     * @param id  The ID of a stored geofence.
+     *
+     * @return A geo-fence defined by center and radius.
+     */
+    public synchronized SimpleGeofence getGeofence(String id) {
+        return load().get(id);
+    }
 
     /**
-     * Remove a geo-fence object by removing its keys.
+     * Saves a geo-fence, replacing the one with the same ID.
      *
-     * @param id The ID of a stored geofence.
+     * @param id The ID of a Geofence object
+     * @param geofence The SimpleGeofence containing the values to save.
      */
-	private void clearGeofence(String id) {
+    public synchronized void setGeofence(String id, SimpleGeofence geofence) {
 
-        Editor editor = mPrefs.edit();
-        editor.remove(getGeofenceFieldKey(id, KEY_LATITUDE));
-        editor.remove(getGeofenceFieldKey(id, KEY_LONGITUDE));
-        editor.remove(getGeofenceFieldKey(id, KEY_RADIUS));
-        editor.remove(getGeofenceFieldKey(id, KEY_EXPIRATION_DURATION));
-        editor.remove(getGeofenceFieldKey(id, KEY_TRANSITION_TYPE));
-        editor.apply();
+        SQLiteDatabase db = getWritableDatabase();
+        db.replace(TABLE, null, toValues(id, geofence));
+        load().put(id, geofence);
 
-        Log.i(TAG, "cleared simple geofence");
+        Log.i(TAG, "saved simple geofence");
     }
 
     /**
-     * Saves a list of simple geo-fences to shared preferences.
+     * Saves a list of simple geo-fences in one transaction.
      *
      * @param geofences The list of simple geo-fences to save.
      */
-	public void setGeofenceList(List<SimpleGeofence> geofences) {
+    public synchronized void setGeofenceList(List<SimpleGeofence> geofences) {
 
         if (geofences != null) {
 
-			for (int i = 0; i < geofences.size(); i++) {
-				setGeofence(geofences.get(i).getId(), geofences.get(i));
-			}
-		}
-		Log.i(TAG, "saved list of simple geofences");
-	}
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (SimpleGeofence geofence : geofences) {
+                    db.replace(TABLE, null, toValues(geofence.getId(), geofence));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            for (SimpleGeofence geofence : geofences) {
+                load().put(geofence.getId(), geofence);
+            }
+        }
+        Log.i(TAG, "saved list of simple geofences");
+    }
 
     /**
      * Clears a list of simple geo-fences.
      *
      * @param ids IDs of the list of geo-fences to clear.
      */
-	public void clearGeofenceList(String[] ids) {
+    public synchronized void clearGeofenceList(String[] ids) {
 
         if (ids != null) {
+
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (String id : ids) {
+                    db.delete(TABLE, ID + " = ?", new String[] { id });
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
             for (String id : ids) {
-                clearGeofence(id);
+                load().remove(id);
             }
-		}
-		Log.i(TAG, "cleared list of simple geofences");
-	}
+        }
+        Log.i(TAG, "cleared list of simple geofences");
+    }
+
+    /**
+     * Reads all geo-fences with a single query the first time.
+     *
+     * @return The geo-fences by ID.
+     */
+    private Map<String, SimpleGeofence> load() {
+
+        if (geofences != null) {
+            return geofences;
+        }
+
+        long start = System.nanoTime();
+        geofences = new HashMap<>();
+
+        Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                GeofencePolygon polygon = GeofencePolygon.decode(cursor.getString(6));
+                SimpleGeofence geofence = polygon != null
+                        ? new SimpleGeofence(cursor.getString(0), polygon, cursor.getLong(4), cursor.getInt(5))
+                        : new SimpleGeofence(cursor.getString(0), cursor.getDouble(1), cursor.getDouble(2),
+                                cursor.getFloat(3), cursor.getLong(4), cursor.getInt(5));
+                geofences.put(geofence.getId(), geofence);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.i(TAG, geofences.size() + " geofences loaded in " + (System.nanoTime() - start) / 1000000 + "ms");
+        return geofences;
+    }
+
+    private static ContentValues toValues(String id, SimpleGeofence geofence) {
+
+        ContentValues values = new ContentValues();
+        values.put(ID, id);
+        values.put(LATITUDE, geofence.getLatitude());
+        values.put(LONGITUDE, geofence.getLongitude());
+        values.put(RADIUS, geofence.getRadius());
+        values.put(EXPIRATION_DURATION, geofence.getExpirationDuration());
+        values.put(TRANSITION_TYPE, geofence.getTransitionType());
+        values.put(POLYGON, geofence.getPolygon() != null ? geofence.getPolygon().encode() : null);
+        return values;
+    }
+
+    /**
+     * Imports the geo-fences stored in the shared preferences into a new database.
+     *
+     * @param db Database.
+     */
+    private void importPreferences(SQLiteDatabase db) {
+
+        SharedPreferences prefs = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
+        String suffix = "_" + KEY_LATITUDE;
+
+        Collection<String> keys = prefs.getAll().keySet();
+        for (String key : keys) {
+
+            if (!key.startsWith(KEY_PREFIX + "_") || !key.endsWith(suffix)) {
+                continue;
+            }
+
+            String id = key.substring(KEY_PREFIX.length() + 1, key.length() - suffix.length());
+
+            double lat = prefs.getFloat(getGeofenceFieldKey(id, KEY_LATITUDE), GeofenceUtils.INVALID_FLOAT_VALUE);
+            double lng = prefs.getFloat(getGeofenceFieldKey(id, KEY_LONGITUDE), GeofenceUtils.INVALID_FLOAT_VALUE);
+            float radius = prefs.getFloat(getGeofenceFieldKey(id, KEY_RADIUS), GeofenceUtils.INVALID_FLOAT_VALUE);
+            long expirationDuration = prefs.getLong(getGeofenceFieldKey(id, KEY_EXPIRATION_DURATION), GeofenceUtils.INVALID_LONG_VALUE);
+            int transitionType = prefs.getInt(getGeofenceFieldKey(id, KEY_TRANSITION_TYPE), GeofenceUtils.INVALID_INT_VALUE);
+
+            // Skip incomplete geo-fences.
+            if (lat != GeofenceUtils.INVALID_FLOAT_VALUE
+                    && lng != GeofenceUtils.INVALID_FLOAT_VALUE
+                    && radius != GeofenceUtils.INVALID_FLOAT_VALUE
+                    && expirationDuration != GeofenceUtils.INVALID_LONG_VALUE
+                    && transitionType != GeofenceUtils.INVALID_INT_VALUE) {
+
+                db.insert(TABLE, null, toValues(id, new SimpleGeofence(id, lat, lng, radius, expirationDuration, transitionType)));
+            }
+        }
+
+        imported = !keys.isEmpty();
+    }
+
+    /**
+     * Gets a coordinate stored at full precision with putCoordinate, or
+     * stored as a float before.
+     *
+     * @param pref Shared preferences.
+     * @param key Key of the coordinate.
+     * @param defValue Value if not stored.
+     * @return The coordinate.
+     */
+    public static double getCoordinate(SharedPreferences pref, String key, double defValue) {
+
+        try {
+            return pref.contains(key) ? Double.longBitsToDouble(pref.getLong(key, 0)) : defValue;
+        } catch (ClassCastException e) {
+            return pref.getFloat(key, (float) defValue);
+        }
+    }
+
+    /**
+     * Stores a coordinate at full precision.
+     *
+     * @param editor Shared preferences editor.
+     * @param key Key of the coordinate.
+     * @param value The coordinate.
+     */
+    public static void putCoordinate(SharedPreferences.Editor editor, String key, double value) {
+        editor.putLong(key, Double.doubleToRawLongBits(value));
+    }
 
     /**
      * Given a geo-fences ID and field name (e.g. KEY_LATITUDE), return
@@ -160,7 +335,7 @@ public class SimpleGeofenceStore {
      *
      * @return The key name of a value in SharedPreferences.
      */
-	private String getGeofenceFieldKey(String id, String fieldName) {
-		return KEY_PREFIX + "_" + id + "_" + fieldName;
-	}
+    private static String getGeofenceFieldKey(String id, String fieldName) {
+        return KEY_PREFIX + "_" + id + "_" + fieldName;
+    }
 }
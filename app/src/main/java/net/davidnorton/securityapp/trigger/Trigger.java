@@ -21,10 +21,12 @@ public class Trigger {
 	private listen_state headphones;
     private int batteryStartLevel;
     private int batteryEndLevel;
+    private int batteryHysteresis;
 	private listen_state batteryCharging;
 	private String geofence;
 	private int priority;
 	private Set<String> weekdays;
+	private long[] schedule;
 
     /**
      * Sets default profile states, where every value is unchanged.
@@ -41,6 +43,7 @@ public class Trigger {
         this.headphones = listen_state.ignore;
         this.batteryStartLevel = -1;
         this.batteryEndLevel = -1;
+        this.batteryHysteresis = 0;
         this.batteryCharging = listen_state.ignore;
         this.geofence = null;
         this.priority = 0;
@@ -52,6 +55,12 @@ public class Trigger {
 	public void setWeekdays(Set<String> weekdays) {
 		this.weekdays = weekdays;
 	}
+	public long[] getSchedule() {
+		return schedule;
+	}
+	public void setSchedule(long[] schedule) {
+		this.schedule = schedule;
+	}
 	public int getPriority() {
 		return priority;
 	}
@@ -75,6 +84,12 @@ public class Trigger {
     }
     public void setBatteryEndLevel(int batteryEndLevel) {
         this.batteryEndLevel = batteryEndLevel;
+    }
+    public int getBatteryHysteresis() {
+        return batteryHysteresis;
+    }
+    public void setBatteryHysteresis(int batteryHysteresis) {
+        this.batteryHysteresis = batteryHysteresis;
     }
 	public listen_state getBatteryState() {
 		return batteryCharging;
@@ -18,20 +18,17 @@ import android.support.v4.content.ContextCompat;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import com.google.android.gms.location.Geofence;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EntityStore;
+import net.davidnorton.securityapp.services.TriggerService;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-
 /**
  * Activity used to edit the settings of a Profile.
  * 
@@ -150,6 +147,7 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
             //bindPreferenceSummaryToValue(findPreference("weekdays"));
             addPreferencesFromResource(R.xml.pref_trigger_edit_battery);
             bindPreferenceSummaryToValue(findPreference("battery_state"));
+            bindPreferenceSummaryToValue(findPreference("battery_hysteresis"));
             addPreferencesFromResource(R.xml.pref_trigger_edit_headphone);
             bindPreferenceSummaryToValue(findPreference("headphone"));
 
@@ -157,9 +155,9 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
             if (pref.getInt("geofence_radius", 50) > 0) {
                 findPreference("location").setSummary(
                                 getString(R.string.trigger_pref_location_lat) + ": "
-                                + pref.getFloat("geofence_lat", 0F) + "\u00B0, "
+                                + (float) SimpleGeofenceStore.getCoordinate(pref, "geofence_lat", 0) + "\u00B0, "
                                 + getString(R.string.trigger_pref_location_lng) + ": "
-                                + pref.getFloat("geofence_lng", 0F) + "\u00B0, "
+                                + (float) SimpleGeofenceStore.getCoordinate(pref, "geofence_lng", 0) + "\u00B0, "
                                 + getString(R.string.trigger_pref_location_radius) + ": "
                                 + pref.getInt("geofence_radius", 50) + "m");
             } else {
@@ -177,8 +175,10 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
                 pref.edit().putInt("battery_start_level", -1).apply();
                 findPreference("battery_start_level").setEnabled(false);
                 findPreference("battery_start_level").setSummary(getString(R.string.ignored));
+                findPreference("battery_hysteresis").setEnabled(false);
             } else if (pref.getBoolean("battery_level_check", false)) {
                 findPreference("battery_start_level").setEnabled(true);
+                findPreference("battery_hysteresis").setEnabled(true);
             }
 
             // Bind the summary to the battery level preference.
@@ -319,8 +319,10 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
                     pref.edit().putInt("battery_start_level", -1).apply();
                     findPreference("battery_start_level").setEnabled(false);
                     //findPreference("battery_start_level").setSummary(getString(R.string.ignored));
+                    findPreference("battery_hysteresis").setEnabled(false);
                 } else if (pref.getBoolean("battery_level_check", false)) {
                     findPreference("battery_start_level").setEnabled(true);
+                    findPreference("battery_hysteresis").setEnabled(true);
                 }
 
                 // Disables and enables the end battery level depending on the battery start level.
@@ -338,9 +340,9 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
                     if (pref.getInt("geofence_radius", 50) > 0) {
                         findPreference("location").setSummary(
                                 getString(R.string.trigger_pref_location_lat) + ": "
-                                        + pref.getFloat("geofence_lat", 0F) + "\u00B0, "
+                                        + (float) SimpleGeofenceStore.getCoordinate(pref, "geofence_lat", 0) + "\u00B0, "
                                         + getString(R.string.trigger_pref_location_lng) + ": "
-                                        + pref.getFloat("geofence_lng", 0F) + "\u00B0, "
+                                        + (float) SimpleGeofenceStore.getCoordinate(pref, "geofence_lng", 0) + "\u00B0, "
                                         + getString(R.string.trigger_pref_location_radius) + ": "
                                         + pref.getInt("geofence_radius", 50) + "m");
                     } else {
@@ -593,7 +595,7 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
     private void saveTrigger() {
 
 		SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
-		LocationTrigger locationTrigger = new LocationTrigger(this);
+		GeofenceRegistrar registrar = GeofenceRegistrar.getInstance(this);
 		String name = pref.getString("name_trigger", getResources().getString(R.string.trigger_pref_default_name));
 		Trigger trigger = new Trigger(name);
 		trigger.setPriority(Integer.parseInt(pref.getString("priority", "0")));
@@ -635,6 +637,8 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
 
         trigger.setBatteryEndLevel(pref.getInt("battery_end_level", -1));
 
+        trigger.setBatteryHysteresis(Integer.parseInt(pref.getString("battery_hysteresis", "0")));
+
         // Set headphones state.
 		if (pref.getString("headphone", "ignored").equals("plugged_in")) {
 			trigger.setHeadphones(Trigger.listen_state.listen_on);
@@ -645,57 +649,81 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
 		}
 
 		// Unregister old geo-fence from system.
-		locationTrigger.unregisterGeofence(name);
-		locationTrigger.unregisterGeofence(name + "_exit");
+		registrar.unregister(name);
+		registrar.unregister(name + SimpleGeofence.EXIT_SUFFIX);
 
-		// Delete list of currently triggered geo-fences from the service.
+		// Leave the old geo-fence in the service, the others are kept.
 		Intent intent = new Intent();
 		intent.setAction("net.davidnorton.securityapp.trigger.clearGeofences");
+		intent.putExtra(GeofenceRegistrar.EXTRA_GEOFENCE_IDS, previousName == null || name.equals(previousName)
+				? new String[] { name } : new String[] { name, previousName });
 		sendBroadcast(intent);
 
 		if (pref.getInt("geofence_radius", 50) > 0) {
 
+			GeofencePolygon polygon = GeofencePolygon.decode(pref.getString("geofence_polygon", ""));
+
 			// Geo-fence that registers if you enter the area.
-			SimpleGeofence simple = new SimpleGeofence(name, pref.getFloat(
-					"geofence_lat", 0F), pref.getFloat("geofence_lng", 0F),
+			SimpleGeofence simple = polygon != null
+					? new SimpleGeofence(name, polygon, Geofence.NEVER_EXPIRE, Geofence.GEOFENCE_TRANSITION_ENTER)
+					: new SimpleGeofence(name, SimpleGeofenceStore.getCoordinate(
+					pref, "geofence_lat", 0), SimpleGeofenceStore.getCoordinate(pref, "geofence_lng", 0),
 					pref.getInt("geofence_radius", 0), Geofence.NEVER_EXPIRE,
 					Geofence.GEOFENCE_TRANSITION_ENTER);
-			locationTrigger.registerGeofence(simple);
+			registrar.register(simple);
 
 			// Geo-fence that registers if you leave the area.
-			simple = new SimpleGeofence(name + "_exit", pref.getFloat(
-					"geofence_lat", 0F), pref.getFloat("geofence_lng", 0F),
+			simple = polygon != null
+					? new SimpleGeofence(name + SimpleGeofence.EXIT_SUFFIX, polygon, Geofence.NEVER_EXPIRE, Geofence.GEOFENCE_TRANSITION_EXIT)
+					: new SimpleGeofence(name + SimpleGeofence.EXIT_SUFFIX, SimpleGeofenceStore.getCoordinate(
+					pref, "geofence_lat", 0), SimpleGeofenceStore.getCoordinate(pref, "geofence_lng", 0),
 					pref.getInt("geofence_radius", 0), Geofence.NEVER_EXPIRE,
 					Geofence.GEOFENCE_TRANSITION_EXIT);
-			locationTrigger.registerGeofence(simple);
+			registrar.register(simple);
 
 			// Set geo-fence of trigger to the enter event.
 			trigger.setGeofence(name);
+
+			// Tell the user if the geo-fences could not be registered.
+			final Context appContext = getApplicationContext();
+			registrar.submit(new GeofenceRegistrar.Callback() {
+				@Override
+				public void onComplete(boolean success) {
+					if (!success) {
+						Toast.makeText(appContext, R.string.trigger_toast_geofence_failed, Toast.LENGTH_LONG).show();
+					}
+				}
+			});
 		} else {
-			locationTrigger.unregisterGeofence(name);
-			locationTrigger.unregisterGeofence(name + "_exit");
+			registrar.unregister(name);
+			registrar.unregister(name + SimpleGeofence.EXIT_SUFFIX);
 			trigger.setGeofence(null);
 		}
 
 		// Generate XML.
 		XmlCreatorTrigger creator = new XmlCreatorTrigger();
 
+		EntityStore store = EntityStore.getInstance(this);
+
 		try {
-			FileOutputStream output = openFileOutput(trigger.getName() + "_trigger.xml", Context.MODE_PRIVATE);
-			output.write(creator.create(trigger).getBytes());
-			output.close();
-		} catch (TransformerException | ParserConfigurationException | IOException e1) {
+			store.put(EntityStore.TRIGGER, trigger.getName(), creator.create(trigger));
+		} catch (IOException e1) {
 			e1.printStackTrace();
 		}
 
-        // If editing file, delete old file.
+        // If renamed, delete the old trigger.
         if (!(name.equals(previousName))) {
-			File file = new File(String.valueOf(getFilesDir()) + "/" + previousName + "_trigger.xml");
-			file.delete();
+			store.delete(EntityStore.TRIGGER, previousName);
 		}
 
+		// Refresh the saved trigger, and the old one if renamed.
 		intent = new Intent();
 		intent.setAction("net.davidnorton.securityapp.trigger.refresh");
+		if (previousName == null || name.equals(previousName)) {
+			intent.putExtra(TriggerService.EXTRA_TRIGGER_NAMES, new String[] { name });
+		} else {
+			intent.putExtra(TriggerService.EXTRA_TRIGGER_NAMES, new String[] { name, previousName });
+		}
 		sendBroadcast(intent);
 	}
 
@@ -753,19 +781,8 @@ public class TriggerEditActivity extends PreferenceActivity implements OnSharedP
 	 */
 	private void refreshProfileArray() {
 
-        List<String> profileList = new ArrayList<>();
-		String[] fileList = getFilesDir().list();
-		StringBuilder sb = new StringBuilder();
-
-        // Get the name of each profile and add to list.
-		for (String file : fileList) {
-			if (file.contains("_profile")) {
-				sb.append(file);
-				sb.delete(sb.length() - 12, sb.length());
-				profileList.add(sb.toString());
-				sb.delete(0, sb.length());
-			}
-		}
+        // Get the name of each profile.
+        List<String> profileList = EntityStore.getInstance(this).list(EntityStore.PROFILE, EntityStore.ALL);
 
         // Create list of profiles with the default value as the first item.
 		profileArray = new CharSequence[profileList.size() + 1];
@@ -15,11 +15,13 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EntityStore;
 
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Adds Triggers to Trigger fragment.
@@ -29,12 +31,14 @@ import java.util.List;
 public class TriggerList extends ArrayAdapter<String> implements OnClickListener {
 
     private final List<String> list;
+    private final Set<String> disabled;
     private final Context context;
     private String element;
 
-	public TriggerList(Context cont, int textViewResourceId, List<String> objects) {
+	public TriggerList(Context cont, int textViewResourceId, List<String> objects, Set<String> disabledObjects) {
 		super(cont, textViewResourceId, objects);
 		list = objects;
+		disabled = disabledObjects;
 		context = cont;
 	}
 
@@ -72,18 +76,15 @@ public class TriggerList extends ArrayAdapter<String> implements OnClickListener
 
             // Adds triggers
 			TextView v = (TextView) convertView.findViewById(R.id.textViewTriggerName);
-			StringBuilder sb = new StringBuilder();
-			sb.append(element);
-			sb.delete(sb.length() - 12, sb.length());
-			v.setText(sb.toString());
+			v.setText(element);
 
             // Adds edit buttons
 			buttonEdit.setFocusable(false);
 			buttonEdit.setOnClickListener(this);
-			buttonEdit.setTag(sb.toString());
+			buttonEdit.setTag(element);
 
             // Disable all triggers marked as disabled
-			if (element.contains("_tri_dis")) {
+			if (disabled.contains(element)) {
 				v.setTextColor(Color.GRAY);
 				buttonEdit.setEnabled(false);
 				buttonEdit.setImageDrawable(null);
@@ -103,7 +104,7 @@ public class TriggerList extends ArrayAdapter<String> implements OnClickListener
 		XmlParserPrefTrigger xmlParserPrefTrigger = new XmlParserPrefTrigger(context, v.getTag().toString());
 
 		try {
-			xmlParserPrefTrigger.initializeXmlParser(context.openFileInput(v.getTag() + "_trigger.xml"));
+			xmlParserPrefTrigger.initializeXmlParser(EntityStore.getInstance(context).open(EntityStore.TRIGGER, v.getTag().toString()));
 		} catch (XmlPullParserException | IOException e) {
 			e.printStackTrace();
 		}
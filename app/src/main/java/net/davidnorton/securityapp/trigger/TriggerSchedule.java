@@ -0,0 +1,210 @@
+package net.davidnorton.securityapp.trigger;
+
+import java.util.Calendar;
+import java.util.Set;
+
+/**
+ * Compiles the time and weekday conditions of a trigger into a bitmap with
+ * one bit for every minute of the week, starting Monday 00:00.
+ *
+ * @author David Norton
+ */
+public final class TriggerSchedule {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private TriggerSchedule() {
+    }
+
+    /**
+     * Compiles the time and weekday conditions of a trigger. A time range whose end
+     * is before its start continues past midnight into the following day.
+     *
+     * @param trigger Trigger to compile.
+     * @return The minute-of-week bitmap, or null if the trigger matches at any time.
+     */
+    public static long[] compile(Trigger trigger) {
+
+        boolean[] days = getDays(trigger.getWeekdays());
+        boolean everyDay = days[0] && days[1] && days[2] && days[3] && days[4] && days[5] && days[6];
+        boolean noTime = trigger.getStartHours() == -1 && trigger.getEndHours() == -1;
+
+        // If neither time nor days are set.
+        if (noTime && everyDay) {
+            return null;
+        }
+
+        long[] bits = newBitmap();
+        int start = trigger.getStartHours() * 60 + trigger.getStartMinutes();
+        int end = trigger.getEndHours() * 60 + trigger.getEndMinutes();
+
+        for (int day = 0; day < 7; day++) {
+
+            if (!days[day]) {
+                continue;
+            }
+
+            int offset = day * MINUTES_PER_DAY;
+
+            // Whole day.
+            if (noTime) {
+                set(bits, offset, offset + MINUTES_PER_DAY - 1);
+            // Only the start time.
+            } else if (trigger.getEndHours() == -1) {
+                set(bits, offset + start, offset + start);
+            // Range on the same day.
+            } else if (start < end) {
+                set(bits, offset + Math.max(start, 0), offset + end);
+            // Range ending on the next day.
+            } else if (start > end) {
+                set(bits, offset + start, offset + MINUTES_PER_DAY - 1);
+                int next = ((day + 1) % 7) * MINUTES_PER_DAY;
+                set(bits, next, next + end);
+            }
+        }
+
+        return bits;
+    }
+
+    /**
+     * Tests whether a compiled schedule contains the given minute of the week.
+     *
+     * @param bits Compiled schedule, or null for any time.
+     * @param minuteOfWeek Minute of the week, starting Monday 00:00.
+     * @return true if match, false otherwise.
+     */
+    public static boolean contains(long[] bits, int minuteOfWeek) {
+        return bits == null || (bits[minuteOfWeek >>> 6] & (1L << minuteOfWeek)) != 0;
+    }
+
+    /**
+     * Creates an empty bitmap with one bit for every minute of the week.
+     *
+     * @return Empty bitmap.
+     */
+    public static long[] newBitmap() {
+        return new long[(MINUTES_PER_WEEK + 63) / 64];
+    }
+
+    /**
+     * Marks every minute at which a compiled schedule starts or stops matching.
+     *
+     * @param bits Compiled schedule, or null for any time.
+     * @param boundaries Bitmap the boundaries are added to.
+     */
+    public static void addBoundaries(long[] bits, long[] boundaries) {
+
+        if (bits == null) {
+            return;
+        }
+
+        // A minute is a boundary if it differs from the minute before it, which for
+        // Monday 00:00 is the last minute of the week.
+        long carry = contains(bits, MINUTES_PER_WEEK - 1) ? 1 : 0;
+
+        for (int i = 0; i < bits.length; i++) {
+            long word = bits[i];
+            boundaries[i] |= word ^ ((word << 1) | carry);
+            carry = word >>> 63;
+        }
+
+        // Clear the bits past the end of the week.
+        boundaries[bits.length - 1] &= (1L << (MINUTES_PER_WEEK & 63)) - 1;
+    }
+
+    /**
+     * Finds the next minute after the given one that is set in a bitmap,
+     * wrapping around the end of the week.
+     *
+     * @param bits Bitmap.
+     * @param minuteOfWeek Minute of the week to search after.
+     * @return The next set minute of the week, or -1 if none is set.
+     */
+    public static int nextSetMinute(long[] bits, int minuteOfWeek) {
+
+        int next = nextSetBit(bits, minuteOfWeek + 1, MINUTES_PER_WEEK);
+        if (next == -1) {
+            next = nextSetBit(bits, 0, minuteOfWeek + 1);
+        }
+        return next;
+    }
+
+    /**
+     * Finds the first set bit in a range of a bitmap.
+     *
+     * @param bits Bitmap.
+     * @param from First bit, inclusive.
+     * @param to Last bit, exclusive.
+     * @return Index of the first set bit, or -1 if none is set.
+     */
+    private static int nextSetBit(long[] bits, int from, int to) {
+
+        int index = from;
+
+        while (index < to) {
+            long word = bits[index >>> 6] >>> (index & 63);
+            if (word != 0) {
+                int next = index + Long.numberOfTrailingZeros(word);
+                return next < to ? next : -1;
+            }
+            // Move to the start of the next word.
+            index = (index | 63) + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the minute of the week of a calendar, starting Monday 00:00.
+     *
+     * @param cal Calendar.
+     * @return Minute of the week.
+     */
+    public static int minuteOfWeek(Calendar cal) {
+
+        // Calendar.SUNDAY is 1, so shift Monday to 0.
+        int day = (cal.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+        return day * MINUTES_PER_DAY + cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
+    }
+
+    /**
+     * Converts the weekday set of a trigger, "1" (Monday) to "7" (Sunday), to a
+     * flag per day. No days selected means every day.
+     *
+     * @param weekdays Selected days.
+     * @return Flag for each day starting Monday.
+     */
+    private static boolean[] getDays(Set<String> weekdays) {
+
+        boolean[] days = new boolean[7];
+        boolean any = false;
+
+        if (weekdays != null) {
+            for (int day = 0; day < 7; day++) {
+                days[day] = weekdays.contains(String.valueOf(day + 1));
+                any |= days[day];
+            }
+        }
+
+        if (!any) {
+            for (int day = 0; day < 7; day++) {
+                days[day] = true;
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Sets a range of minutes, both inclusive.
+     *
+     * @param bits Bitmap.
+     * @param from First minute.
+     * @param to Last minute.
+     */
+    private static void set(long[] bits, int from, int to) {
+
+        for (int minute = from; minute <= to; minute++) {
+            bits[minute >>> 6] |= 1L << minute;
+        }
+    }
+}
@@ -1,212 +1,144 @@
 package net.davidnorton.securityapp.trigger;
 
 import android.util.Log;
+import android.util.Xml;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.xmlpull.v1.XmlSerializer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Properties;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.util.Set;
 
 /**
- * Converts a Trigger into a string ready to be processed.
+ * Converts a Trigger into an xml document ready to be stored.
  *
  * @author David Norton
  */
 class XmlCreatorTrigger {
 
 	private final static String TAG = "XmlCreatorTrigger";
-	
-	private final DocumentBuilderFactory buildFactory = DocumentBuilderFactory.newInstance();
-	private DocumentBuilder builder;
-	private final TransformerFactory transFactory = TransformerFactory.newInstance();
-	private Transformer transformer;
+
+	// Weekday attributes, in the order of the weekday numbers 1 to 7.
+	private static final String[] WEEKDAYS = { "mon", "tue", "wed", "thur", "fri", "sat", "sun" };
 
     /**
-     * Creates a string storing the selected user preferences and saves to an xml.
+     * Creates an xml document storing the selected user preferences.
      *
-     * @param trigger The profile object.
+     * @param trigger The trigger object.
      *
-     * @return The created xml string.
+     * @return The created xml document, UTF-8 encoded.
      *
-     * @throws ParserConfigurationException
-     * @throws TransformerException
      * @throws IOException
      */
-	public String create(Trigger trigger) throws ParserConfigurationException, TransformerException, IOException {
+	public byte[] create(Trigger trigger) throws IOException {
 
-        builder = buildFactory.newDocumentBuilder();
-		Document xmlProfile = builder.newDocument();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(512);
+		write(trigger, output);
+		return output.toByteArray();
+	}
 
-        // Create xml root tag.
-		Element rootElement = xmlProfile.createElement("trigger");
-		xmlProfile.appendChild(rootElement);
+    /**
+     * Writes an xml document storing the selected user preferences to a stream.
+     *
+     * @param trigger The trigger object.
+     * @param output Stream to write to.
+     *
+     * @throws IOException
+     */
+	public void write(Trigger trigger, OutputStream output) throws IOException {
 
-        // Declare output format.
-		Properties outputProperties = new Properties();
-		outputProperties.setProperty(OutputKeys.INDENT, "yes");
-		outputProperties.setProperty(OutputKeys.METHOD, "xml");
-		outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-		outputProperties.setProperty(OutputKeys.VERSION, "1.0");
-		outputProperties.setProperty(OutputKeys.ENCODING, "UTF-8");
+		XmlSerializer serializer = Xml.newSerializer();
+		serializer.setOutput(output, "UTF-8");
+		serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+
+        // Create xml root tag.
+		serializer.startDocument("UTF-8", false);
+		serializer.startTag(null, "trigger");
 
 		// Selected profile name.
-		Element profile = xmlProfile.createElement("profile");
-		profile.setAttribute("name", String.format("%s", trigger.getProfileName()));
-		rootElement.appendChild(profile);
-		Log.i(TAG, String.format("Profile was selected: %s", trigger.getProfileName()));
+		serializer.startTag(null, "profile");
+		serializer.attribute(null, "name", String.valueOf(trigger.getProfileName()));
+		serializer.endTag(null, "profile");
 
 		// Priority.
-		Element priority = xmlProfile.createElement("priority");
-		priority.setAttribute("value", String.valueOf(trigger.getPriority()));
-		rootElement.appendChild(priority);
-		Log.i(TAG, String.format("Priority was selected: %s", trigger.getPriority()));
+		serializer.startTag(null, "priority");
+		serializer.attribute(null, "value", Integer.toString(trigger.getPriority()));
+		serializer.endTag(null, "priority");
 
 		// Time changes.
 		if (trigger.getStartMinutes() >= -1 && trigger.getStartHours() >= -1) {
-			Element timeElement = xmlProfile.createElement("time");
+
+			serializer.startTag(null, "time");
 
 			if (trigger.getStartHours() >= -1)
-				timeElement.setAttribute("start_hours", String.format("%d", trigger.getStartHours()));
+				serializer.attribute(null, "start_hours", Integer.toString(trigger.getStartHours()));
 			if (trigger.getStartMinutes() >= -1)
-				timeElement.setAttribute("start_minutes", String.format("%d", trigger.getStartMinutes()));
+				serializer.attribute(null, "start_minutes", Integer.toString(trigger.getStartMinutes()));
 			if (trigger.getEndHours() >= -1)
-				timeElement.setAttribute("end_hours", String.format("%d", trigger.getEndHours()));
+				serializer.attribute(null, "end_hours", Integer.toString(trigger.getEndHours()));
 			if (trigger.getEndMinutes() >= -1)
-				timeElement.setAttribute("end_minutes", String.format("%d", trigger.getEndMinutes()));
-
-			Log.i(TAG,String.format(
-                    "trigger changes were defined as follows: start_hours: %s start_minutes: %s end_minutes: %s end_hours: %s",
-                    trigger.getStartHours(), trigger.getStartMinutes(), trigger.getEndHours(), trigger.getEndMinutes()));
+				serializer.attribute(null, "end_minutes", Integer.toString(trigger.getEndMinutes()));
 
-            rootElement.appendChild(timeElement);
+			serializer.endTag(null, "time");
 		}
 
 		// Battery changes.
 		if ( trigger.getBatteryState() != null && trigger.getBatteryStartLevel() >= -1 && trigger.getBatteryEndLevel() >= -1) {
 
-            Element batteryElement = xmlProfile.createElement("battery");
+			serializer.startTag(null, "battery");
 
             // Battery state.
-			if (trigger.getBatteryState() != Trigger.listen_state.ignore) {
-				batteryElement.setAttribute("state", String.format("%d", trigger.getBatteryState().ordinal()));
-			} else {
-				batteryElement.setAttribute("state", String.format("%d", -1));
-			}
-
-            // Battery start level.
-            if (trigger.getBatteryStartLevel() >= -1) {
-                batteryElement.setAttribute("start_level",
-                        String.format("%d", trigger.getBatteryStartLevel()));
-            }
+			serializer.attribute(null, "state", stateValue(trigger.getBatteryState()));
 
-            // Battery end level.
-            if (trigger.getBatteryEndLevel() >= -1) {
-                batteryElement.setAttribute("end_level",
-                        String.format("%d", trigger.getBatteryEndLevel()));
-            }
+            // Battery start and end level.
+			serializer.attribute(null, "start_level", Integer.toString(trigger.getBatteryStartLevel()));
+			serializer.attribute(null, "end_level", Integer.toString(trigger.getBatteryEndLevel()));
 
-            Log.i(TAG, String.format("trigger changes were defined as follows:  battery_state: %s", trigger.getBatteryState()));
+            // Battery level hysteresis.
+			serializer.attribute(null, "hysteresis", Integer.toString(trigger.getBatteryHysteresis()));
 
-            rootElement.appendChild(batteryElement);
+			serializer.endTag(null, "battery");
 		}
 
 		// Headphone changes.
 		if (trigger.getHeadphones() != null) {
 
-            Element headphoneElement = xmlProfile.createElement("headphone");
-
-			if (trigger.getHeadphones() != Trigger.listen_state.ignore) {
-				headphoneElement.setAttribute("state", String.format("%d", trigger.getHeadphones().ordinal()));
-			} else {
-				headphoneElement.setAttribute("state", String.format("%d", -1));
-			}
-
-			Log.i(TAG, String.format("trigger changes were defined as follows: headphone_state: %s", trigger.getHeadphones()));
-
-            rootElement.appendChild(headphoneElement);
+			serializer.startTag(null, "headphone");
+			serializer.attribute(null, "state", stateValue(trigger.getHeadphones()));
+			serializer.endTag(null, "headphone");
 		}
 
 		// Geo-fence changes.
-		Element geofenceElement = xmlProfile.createElement("geofence");
-
-		if (trigger.getGeofence() != null) {
-			geofenceElement.setAttribute("id", trigger.getGeofence());
-		} else {
-			geofenceElement.setAttribute("id", "");
-		}
-
-		Log.i(TAG, String.format("trigger changes were defined as follows: trigger_name: %s", trigger.getGeofence()));
-		rootElement.appendChild(geofenceElement);
+		serializer.startTag(null, "geofence");
+		serializer.attribute(null, "id", trigger.getGeofence() != null ? trigger.getGeofence() : "");
+		serializer.endTag(null, "geofence");
 
 		// Day changes.
-		if (trigger.getWeekdays() != null) {
+		Set<String> weekdays = trigger.getWeekdays();
 
-            Element weekdayElement = xmlProfile.createElement("weekdays");
+		if (weekdays != null) {
 
-			if (trigger.getWeekdays().contains("1")) {
-				weekdayElement.setAttribute("mon", "true");
-			} else {
-				weekdayElement.setAttribute("mon", "false");
-			}
-			if (trigger.getWeekdays().contains("2")) {
-				weekdayElement.setAttribute("tue", "true");
-			} else {
-				weekdayElement.setAttribute("tue", "false");
-			}
-			if (trigger.getWeekdays().contains("3")) {
-				weekdayElement.setAttribute("wed", "true");
-			} else {
-				weekdayElement.setAttribute("wed", "false");
-			}
-			if (trigger.getWeekdays().contains("4")) {
-				weekdayElement.setAttribute("thur", "true");
-			} else {
-				weekdayElement.setAttribute("thur", "false");
-			}
-			if (trigger.getWeekdays().contains("5")) {
-				weekdayElement.setAttribute("fri", "true");
-			} else {
-				weekdayElement.setAttribute("fri", "false");
-			}
-			if (trigger.getWeekdays().contains("6")) {
-				weekdayElement.setAttribute("sat", "true");
-			} else {
-				weekdayElement.setAttribute("sat", "false");
-			}
-			if (trigger.getWeekdays().contains("7")) {
-				weekdayElement.setAttribute("sun", "true");
-			} else {
-				weekdayElement.setAttribute("sun", "false");
-			}
+			serializer.startTag(null, "weekdays");
 
-			Log.i(TAG, String.format("trigger changes were defined as follows: weekday number: %s", trigger.getWeekdays().size()));
+			for (int i = 0; i < WEEKDAYS.length; i++) {
+				serializer.attribute(null, WEEKDAYS[i], weekdays.contains(Integer.toString(i + 1)) ? "true" : "false");
+			}
 
-            rootElement.appendChild(weekdayElement);
+			serializer.endTag(null, "weekdays");
 		}
 
-        // Write complete xml file.
-		transformer = transFactory.newTransformer();
-		transformer.setOutputProperties(outputProperties);
-		DOMSource domSource = new DOMSource(xmlProfile.getDocumentElement());
+        // Write complete xml document.
+		serializer.endTag(null, "trigger");
+		serializer.endDocument();
 
-		OutputStream output = new ByteArrayOutputStream();
-		StreamResult result = new StreamResult(output);
-		transformer.transform(domSource, result);
-		String xmlString = output.toString();
+		Log.i(TAG, "Trigger written: " + trigger.getName());
+	}
 
-		return xmlString;
+    /**
+     * @return The ordinal of the state, or -1 if ignored.
+     */
+	private static String stateValue(Trigger.listen_state state) {
+		return state != Trigger.listen_state.ignore ? Integer.toString(state.ordinal()) : "-1";
 	}
-}
\ No newline at end of file
+}
@@ -279,6 +279,14 @@ class XmlParserPrefTrigger {
 			Log.e(TAG, "BatteryEndLevel: Invalid Argument!");
 		}
 
+        // If hysteresis set, older triggers have none.
+        if (parser.getAttributeValue(null, "hysteresis") != null) {
+            prefEdit.putString("battery_hysteresis", parser.getAttributeValue(null, "hysteresis"));
+            Log.i(TAG, "BatteryHysteresis: " + parser.getAttributeValue(null, "hysteresis"));
+        } else {
+            prefEdit.putString("battery_hysteresis", "0");
+        }
+
         // If battery state set.
 		if (parser.getAttributeValue(null, "state") != null) {
 			// If charging
@@ -355,16 +363,18 @@ class XmlParserPrefTrigger {
 		if (parser.getAttributeValue(null, "id") != null) {
             // If geo-fence isn't empty.
 			if (!parser.getAttributeValue(null, "id").equals("")) {
-				SimpleGeofenceStore store = new SimpleGeofenceStore(context);
+				SimpleGeofenceStore store = SimpleGeofenceStore.getInstance(context);
 				SimpleGeofence simple = store.getGeofence(parser.getAttributeValue(null, "id"));
-				prefEdit.putFloat("geofence_lat", (float) simple.getLatitude());
-				prefEdit.putFloat("geofence_lng", (float) simple.getLongitude());
+				SimpleGeofenceStore.putCoordinate(prefEdit, "geofence_lat", simple.getLatitude());
+				SimpleGeofenceStore.putCoordinate(prefEdit, "geofence_lng", simple.getLongitude());
 				prefEdit.putInt("geofence_radius", (int) simple.getRadius());
+				prefEdit.putString("geofence_polygon", simple.getPolygon() != null ? simple.getPolygon().encode() : "");
 				Log.i(TAG, "Geofence loaded");
 			} else {
-				prefEdit.putFloat("geofence_lat", -1F);
-				prefEdit.putFloat("geofence_lng", -1F);
+				SimpleGeofenceStore.putCoordinate(prefEdit, "geofence_lat", -1);
+				SimpleGeofenceStore.putCoordinate(prefEdit, "geofence_lng", -1);
 				prefEdit.putInt("geofence_radius", -1);
+				prefEdit.putString("geofence_polygon", "");
 				Log.i(TAG, "Geofence: ignore");
 			}
 		} else {
@@ -60,6 +60,9 @@ public class XmlParserTrigger {
 			parser.setInput(in, null);
 			parser.nextTag();
 			readAndApplyTags(parser, trigger);
+
+			// Compile the time and weekday conditions.
+			trigger.setSchedule(TriggerSchedule.compile(trigger));
 		} finally {
 			in.close();
 		}
@@ -271,6 +274,12 @@ public class XmlParserTrigger {
             Log.e(TAG, "BatteryEndLevel: Invalid Argument!");
         }
 
+        // If battery hysteresis set, older triggers have none.
+        if (parser.getAttributeValue(null, "hysteresis") != null) {
+            trigger.setBatteryHysteresis(Integer.parseInt(parser.getAttributeValue(null, "hysteresis")));
+            Log.i(TAG, "BatteryHysteresis: " + parser.getAttributeValue(null, "hysteresis"));
+        }
+
         // If battery state set.
 		if (parser.getAttributeValue(null, "state") != null) {
 
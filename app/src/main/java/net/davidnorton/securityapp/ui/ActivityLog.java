@@ -1,21 +1,45 @@
 package net.davidnorton.securityapp.ui;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.content.res.ResourcesCompat;
 import android.support.v7.widget.CardView;
+import android.text.format.DateFormat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.ScrollView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EventLog;
+import net.davidnorton.securityapp.services.TriggerMetrics;
 
-public class ActivityLog extends Fragment {
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fragment used to page through the event log, newest first, and show
+ * the trigger metrics.
+ *
+ * @author David Norton
+ */
+public class ActivityLog extends Fragment implements View.OnClickListener {
 
     private ImageView ivIcon;
     private TextView tvItemName;
@@ -23,10 +47,34 @@ public class ActivityLog extends Fragment {
     public static final String IMAGE_RESOURCE_ID = "iconResourceID";
     public static final String ITEM_NAME = "itemName";
 
+    private static final int PAGE_SIZE = 50;
+
+    // Buffers for the events of the current page.
+    private final long[] times = new long[PAGE_SIZE];
+    private final int[] types = new int[PAGE_SIZE];
+    private final String[] names = new String[PAGE_SIZE];
+    private final int[] reasons = new int[PAGE_SIZE];
+
+    private final List<String> events = new ArrayList<>();
+    private ArrayAdapter<String> adapter;
+    private Button newerButton;
+    private Button olderButton;
+
+    // Number of newer events before the current page.
+    private int offset = 0;
+
     public ActivityLog() {
 
     }
 
+    /**
+     * Creates the Activity Log fragment.
+     *
+     * @param inflater Instantiates a layout XML file into its corresponding View objects.
+     * @param container Container used to the base for layouts and views containers.
+     * @param savedInstanceState Saves current state of application to be referred back to.
+     * @return The view.
+     */
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 
@@ -43,15 +91,110 @@ public class ActivityLog extends Fragment {
         if (pref.getBoolean("dark_theme", false) ) {
             CardView cardView = (CardView) view.findViewById(R.id.card_1);
             cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
-            cardView = (CardView) view.findViewById(R.id.card_2);
-            cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
-            cardView = (CardView) view.findViewById(R.id.card_3);
-            cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
-            cardView = (CardView) view.findViewById(R.id.card_4);
-            cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
         }
 
+        adapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_list_item_1, events);
+        ListView listView = (ListView) view.findViewById(R.id.ListViewActivityLog);
+        listView.setAdapter(adapter);
+
+        newerButton = (Button) view.findViewById(R.id.activity_log_newer);
+        olderButton = (Button) view.findViewById(R.id.activity_log_older);
+        newerButton.setOnClickListener(this);
+        olderButton.setOnClickListener(this);
+        view.findViewById(R.id.activity_log_save).setOnClickListener(this);
+        view.findViewById(R.id.activity_log_diagnostics).setOnClickListener(this);
+
         return view;
     }
 
-}
\ No newline at end of file
+    /**
+     * Run when fragment becomes visible. Shows the newest events.
+     */
+    @Override
+    public void onStart() {
+        offset = 0;
+        refreshListView();
+        super.onStart();
+    }
+
+    /**
+     * Pages through the log, saves it to a file or shows the metrics.
+     *
+     * @param v Button selected.
+     */
+    @Override
+    public void onClick(View v) {
+
+        switch (v.getId()) {
+            case R.id.activity_log_newer:
+                offset = Math.max(offset - PAGE_SIZE, 0);
+                refreshListView();
+                break;
+            case R.id.activity_log_older:
+                offset += PAGE_SIZE;
+                refreshListView();
+                break;
+            case R.id.activity_log_save:
+                try {
+                    File file = EventLog.flush(getActivity());
+                    Toast.makeText(getActivity(), getResources().getString(R.string.activity_log_saved) + " " + file.getPath(), Toast.LENGTH_LONG).show();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                break;
+            case R.id.activity_log_diagnostics:
+                showDiagnostics();
+                break;
+        }
+    }
+
+    /**
+     * Displays the trigger metrics in a dialog, with an option to reset them.
+     */
+    private void showDiagnostics() {
+
+        StringWriter text = new StringWriter();
+        TriggerMetrics.dump(new PrintWriter(text));
+
+        TextView textView = new TextView(getActivity());
+        textView.setText(text.toString());
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextSize(12);
+        textView.setPadding(30, 20, 30, 20);
+
+        ScrollView scrollView = new ScrollView(getActivity());
+        scrollView.addView(textView);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.activity_log_diagnostics_title);
+        builder.setView(scrollView);
+        builder.setPositiveButton(R.string.ok, null);
+        builder.setNegativeButton(R.string.activity_log_diagnostics_reset, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                TriggerMetrics.reset();
+            }
+        });
+        builder.show();
+    }
+
+    /**
+     * Reads the current page of events and updates the list.
+     */
+    private void refreshListView() {
+
+        int count = EventLog.read(offset, times, types, names, reasons);
+
+        events.clear();
+        for (int i = 0; i < count; i++) {
+            events.add(DateFormat.format("dd/MM HH:mm", times[i]) + "  " + EventLog.format(types[i], names[i], reasons[i]));
+        }
+        if (count == 0 && offset == 0) {
+            events.add(getResources().getString(R.string.activity_log_empty));
+        }
+        adapter.notifyDataSetChanged();
+
+        newerButton.setEnabled(offset > 0);
+        olderButton.setEnabled(offset + count < EventLog.size());
+    }
+}
@@ -4,6 +4,7 @@ import android.app.Fragment;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.v4.content.res.ResourcesCompat;
@@ -15,6 +16,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EventLog;
+import net.davidnorton.securityapp.trigger.GeofenceRegistrar;
 
 /**
  * Fragment used to contain the app advanced settings.
@@ -58,6 +61,12 @@ public class AdvancedSettings extends Fragment {
             cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
             cardView = (CardView) view.findViewById(R.id.card_3);
             cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
+            cardView = (CardView) view.findViewById(R.id.card_4);
+            cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
+            cardView = (CardView) view.findViewById(R.id.card_5);
+            cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
+            cardView = (CardView) view.findViewById(R.id.card_6);
+            cardView.setCardBackgroundColor(Color.rgb(40, 40, 40));
         }
 
         return view;
@@ -85,4 +94,55 @@ public class AdvancedSettings extends Fragment {
         }
     }
 
+    /**
+     * Load the trigger switch delay preference option.
+     */
+    public static class DwellTimeFragment extends PreferenceFragment {
+        @Override
+        public void onCreate(final Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            addPreferencesFromResource(R.xml.pref_dwell_time);
+        }
+    }
+
+    /**
+     * Load the debug logging preference option.
+     */
+    public static class DebugLogFragment extends PreferenceFragment {
+        @Override
+        public void onCreate(final Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            addPreferencesFromResource(R.xml.pref_debug_log);
+
+            // Switch the trigger service's logging immediately.
+            findPreference("debug_log").setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    EventLog.setDebug((Boolean) newValue);
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Load the on-device locations preference option.
+     */
+    public static class LocalGeofencesFragment extends PreferenceFragment {
+        @Override
+        public void onCreate(final Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            addPreferencesFromResource(R.xml.pref_local_geofences);
+
+            // Move the geo-fences over once the setting is saved.
+            findPreference(GeofenceRegistrar.PREF_LOCAL_GEOFENCES).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    GeofenceRegistrar.getInstance(getActivity()).settingChanged();
+                    return true;
+                }
+            });
+        }
+    }
+
 }
\ No newline at end of file
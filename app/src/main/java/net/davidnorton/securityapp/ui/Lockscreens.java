@@ -3,19 +3,15 @@ package net.davidnorton.securityapp.ui;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.DialogFragment;
-import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.nfc.NfcAdapter;
 import android.nfc.NfcManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.support.v4.content.ContextCompat;
@@ -49,22 +45,16 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import net.davidnorton.securityapp.R;
-import net.davidnorton.securityapp.lockscreen.ImageUtils;
+import net.davidnorton.securityapp.lockscreen.BlurEngine;
 import net.davidnorton.securityapp.lockscreen.NFCReader;
 import net.davidnorton.securityapp.profile.Handler;
 import net.davidnorton.securityapp.services.LockScreenService;
+import net.davidnorton.securityapp.services.SettingsRepository;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 
 /**
  * Fragment used to set the lock screen and save
@@ -557,90 +547,29 @@ public class Lockscreens extends DialogFragment implements View.OnClickListener,
                     toast.show();
                 }
 
-                // If blur > 0, convert wallpaper to bitmap, blur and store.
+                // If blur > 0, blur and store the wallpaper in the background.
                 else {
 
-                    // Check if SmartLock folder exists, if not, create directory.
-                    File folder = new File(Environment.getExternalStorageDirectory() + "/SmartLock");
-                    boolean folderSuccess = true;
+                    // Display progress bar while blurring.
+                    progressBar.setVisibility(View.VISIBLE);
 
-                    if (!folder.exists()) {
-                        folderSuccess = folder.mkdir();
-                    }
-
-                    // If folder exists get wallpaper.
-                    if (folderSuccess) {
-                        WallpaperManager wallpaperManager = WallpaperManager.getInstance(getActivity());
-                        final Drawable wallpaperDrawable = wallpaperManager.peekFastDrawable();
-
-                        // If wallpaper exists display .
-                        if (wallpaperDrawable != null) {
-
-                            // Display progress bar while blurring.
-                            progressBar.setVisibility(View.VISIBLE);
-
-                            new Thread(new Runnable() {
-
-                                @Override
-                                public void run() {
-                                    Bitmap bitmapToBlur = ImageUtils.drawableToBitmap(wallpaperDrawable);
-                                    Bitmap blurredWallpaper = null;
-                                    boolean stored = false;
-
-                                    // Blur wallpaper.
-                                    if (bitmapToBlur != null) {
-                                        blurredWallpaper = ImageUtils.fastBlur(getActivity(), bitmapToBlur, blur);
-                                    }
-
-                                    // If wallpaper blurred correctly.
-                                    if (blurredWallpaper != null) {
-
-                                        stored = ImageUtils.storeImage(blurredWallpaper);
-                                        final boolean finalStored = stored;
-
-                                        // Display successfully updated message.
-                                        getActivity().runOnUiThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-
-                                                progressBar.setVisibility(View.INVISIBLE);
-
-                                                if (finalStored) {
-                                                    Toast toast = Toast.makeText(getActivity().getApplicationContext(),
-                                                            R.string.lockscreen_blur_toast_success, Toast.LENGTH_SHORT);
-                                                    toast.show();
-                                                }
-                                            }
-                                        });
-                                    }
-
-                                    // If wallpaper not blurred correctly.
-                                    if (bitmapToBlur == null || blurredWallpaper == null || !stored) {
-
-                                        // Display error message.
-                                        getActivity().runOnUiThread(new Runnable() {
-                                            @Override
-                                            public void run() {
+                    BlurEngine.getInstance(getActivity()).blurWallpaper(blur, new BlurEngine.Callback() {
+                        @Override
+                        public void onBlurred(boolean success) {
 
-                                                progressBar.setVisibility(View.INVISIBLE);
+                            // Fragment was closed while blurring.
+                            if (getActivity() == null) {
+                                return;
+                            }
 
-                                                Toast toast = Toast.makeText(getActivity().getApplicationContext(),
-                                                        R.string.lockscreen_blur_toast_failed, Toast.LENGTH_SHORT);
-                                                toast.show();
-                                            }
-                                        });
-                                    }
-                                }
-                            }).start();
-                        }
+                            progressBar.setVisibility(View.INVISIBLE);
 
-                        // Display error message if not updated.
-                        else {
-                            Toast toast = Toast.makeText(getActivity().getApplicationContext(),
-                                    R.string.lockscreen_blur_toast_failed, Toast.LENGTH_SHORT);
+                            // Display updated or error message.
+                            Toast toast = Toast.makeText(getActivity().getApplicationContext(), success
+                                    ? R.string.lockscreen_blur_toast_success : R.string.lockscreen_blur_toast_failed, Toast.LENGTH_SHORT);
                             toast.show();
                         }
-                    }
+                    });
                 }
             }
 
@@ -894,16 +823,8 @@ public class Lockscreens extends DialogFragment implements View.OnClickListener,
      */
     private void readFromJSON() {
 
-        // Read root object, or put if they don't exist.
-        try {
-            BufferedReader bRead = new BufferedReader(new InputStreamReader(getActivity().openFileInput("settings.json")));
-            root = new JSONObject(bRead.readLine());
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            root = new JSONObject();
-        } catch (JSONException | IOException e) {
-            e.printStackTrace();
-        }
+        // Read root object, empty if it doesn't exist.
+        root = SettingsRepository.getInstance(getActivity()).getRoot();
 
         // Read settings object from root object, or put if they don't exist.
         try {
@@ -945,19 +866,10 @@ public class Lockscreens extends DialogFragment implements View.OnClickListener,
     }
 
     /**
-     * Write to JSON file.
+     * Write to JSON file, in the background and only if changed.
      */
     private void writeToJSON() {
-
-        // Write JSON root object.
-        try {
-            BufferedWriter bWrite = new BufferedWriter(new OutputStreamWriter
-                    (getActivity().openFileOutput("settings.json", Context.MODE_PRIVATE)));
-            bWrite.write(root.toString());
-            bWrite.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        SettingsRepository.getInstance(getActivity()).save();
     }
 
     /**
@@ -22,14 +22,13 @@ import android.widget.TextView;
 import com.gc.materialdesign.views.ButtonFloat;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.profile.ProfileCache;
 import net.davidnorton.securityapp.profile.ProfileList;
 import net.davidnorton.securityapp.profile.ProfileEditActivity;
 import net.davidnorton.securityapp.profile.Handler;
+import net.davidnorton.securityapp.services.EntityStore;
 
-import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -130,33 +129,8 @@ public class Profiles extends Fragment implements AdapterView.OnItemClickListene
         // Clear the current list of items
         profileList.clear();
 
-        // Update the list with all stored profiles
-        String[] fileList = getActivity().getFilesDir().list();
-        StringBuilder sb = new StringBuilder();
-
-        for (String file : fileList) {
-            if (file.contains("_profile")) {
-                sb.append(file);
-                // Remove '_profile.xml', leaving the profile name
-                sb.delete(sb.length() - 12, sb.length());
-                profileList.add(sb.toString());
-                // Clear buffer
-                sb.delete(0, sb.length());
-            }
-        }
-
-        // Order Profile list alphabetically
-        Collections.sort(profileList, new Comparator<String>() {
-
-            @Override
-            public int compare(String lhs, String rhs) {
-                if (lhs.toLowerCase().compareTo(rhs.toLowerCase()) > 0)
-                    return 1;
-                if (lhs.toLowerCase().compareTo(rhs.toLowerCase()) < 0)
-                    return -1;
-                return 0;
-            }
-        });
+        // Update the list with all stored profiles, ordered alphabetically.
+        profileList.addAll(EntityStore.getInstance(getActivity()).list(EntityStore.PROFILE, EntityStore.ALL));
 
         // Recreate the list, setting click listeners.
         ListView profilesView = (ListView) getActivity().findViewById(R.id.ListViewProfiles);
@@ -250,9 +224,8 @@ public class Profiles extends Fragment implements AdapterView.OnItemClickListene
         @Override
         public void onClick(DialogInterface dialog, int pos) {
 
-            File file = new File(String.valueOf(getActivity().getFilesDir())
-                    + "/" + av.getItemAtPosition(position) + "_profile.xml");
-            file.delete();
+            EntityStore.getInstance(getActivity()).delete(EntityStore.PROFILE, (String) av.getItemAtPosition(position));
+            ProfileCache.invalidate((String) av.getItemAtPosition(position));
 
             refreshListView();
         }
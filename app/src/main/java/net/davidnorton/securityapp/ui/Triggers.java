@@ -22,14 +22,13 @@ import android.widget.TextView;
 import com.gc.materialdesign.views.ButtonFloat;
 
 import net.davidnorton.securityapp.R;
+import net.davidnorton.securityapp.services.EntityStore;
 import net.davidnorton.securityapp.services.TriggerService;
+import net.davidnorton.securityapp.trigger.SimpleGeofenceStore;
 import net.davidnorton.securityapp.trigger.TriggerList;
 import net.davidnorton.securityapp.trigger.TriggerEditActivity;
 
-import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -39,6 +38,7 @@ public class Triggers extends Fragment implements AdapterView.OnItemLongClickLis
     private ImageView ivIcon;
     private TextView tvItemName;
     private final List<String> triggerList = new ArrayList<>();
+    private final Set<String> disabledTriggers = new HashSet<>();
 
     public static final String IMAGE_RESOURCE_ID = "iconResourceID";
     public static final String ITEM_NAME = "itemName";
@@ -117,31 +117,15 @@ public class Triggers extends Fragment implements AdapterView.OnItemLongClickLis
 
 
         ListView v = (ListView) getActivity().findViewById(R.id.ListViewTriggers);
-        String[] fileList = getActivity().getFilesDir().list();
+        EntityStore store = EntityStore.getInstance(getActivity());
 
-        // Add triggers to list.
-        for (String file : fileList) {
-            if (file.contains("_tri_dis") || file.contains("_trigger")) {
-                triggerList.add(file);
-            }
-        }
-
-        // Sort triggers alphabetically.
-        Collections.sort(triggerList, new Comparator<String>() {
-
-            @Override
-            public int compare(String lhs, String rhs) {
-                if (lhs.toLowerCase().compareTo(rhs.toLowerCase()) > 0)
-                    return 1;
-                if (lhs.toLowerCase().compareTo(rhs.toLowerCase()) < 0)
-                    return -1;
-                return 0;
-            }
-
-        });
+        // Add triggers to list, sorted alphabetically.
+        triggerList.addAll(store.list(EntityStore.TRIGGER, EntityStore.ALL));
+        disabledTriggers.clear();
+        disabledTriggers.addAll(store.list(EntityStore.TRIGGER, EntityStore.DISABLED_ONLY));
 
         // Recreate the list, setting click listeners.
-        TriggerList listAdapter = new TriggerList(getActivity(), 0, triggerList);
+        TriggerList listAdapter = new TriggerList(getActivity(), 0, triggerList, disabledTriggers);
         v.setAdapter(listAdapter);
         v.setOnItemLongClickListener(this);
     }
@@ -165,10 +149,12 @@ public class Triggers extends Fragment implements AdapterView.OnItemLongClickLis
             prefEditor.putString("battery_state", "ignored");
             prefEditor.putInt("battery_start_level", -1);
             prefEditor.putInt("battery_end_level", -1);
+            prefEditor.putString("battery_hysteresis", "0");
             prefEditor.putString("headphone", "ignored");
-            prefEditor.putFloat("geofence_lat", -1F);
-            prefEditor.putFloat("geofence_lng", -1F);
+            SimpleGeofenceStore.putCoordinate(prefEditor, "geofence_lat", -1);
+            SimpleGeofenceStore.putCoordinate(prefEditor, "geofence_lng", -1);
             prefEditor.putInt("geofence_radius", 0);
+            prefEditor.putString("geofence_polygon", "");
             prefEditor.putStringSet("weekdays", weekdays);
             prefEditor.apply();
 
@@ -193,10 +179,10 @@ public class Triggers extends Fragment implements AdapterView.OnItemLongClickLis
         vib.vibrate(100);
 
         // Create and display a dialog with a enable/disable and delete option.
-        String filename = triggerList.get(position);
+        String name = triggerList.get(position);
         String[] options;
 
-        if (filename.contains("_trigger")) {
+        if (!disabledTriggers.contains(name)) {
             options = new String[] { getResources().getString(R.string.disabled), getResources().getString(R.string.delete) };
         } else {
             options = new String[] { getResources().getString(R.string.enabled), getResources().getString(R.string.delete) };
@@ -230,40 +216,24 @@ public class Triggers extends Fragment implements AdapterView.OnItemLongClickLis
         @Override
         public void onClick(DialogInterface dialog, int which) {
 
-            Boolean enableTrigger = true;
-            StringBuilder sb = new StringBuilder();
-            sb.append(String.valueOf(getActivity().getFilesDir()) + "/" + av.getItemAtPosition(position));
+            EntityStore store = EntityStore.getInstance(getActivity());
+            String name = (String) av.getItemAtPosition(position);
 
             // Check if trigger is enabled or disabled.
-            if (sb.toString().contains("_trigger")) {
-                enableTrigger = false;
-            }
-
-            // Get trigger name.
-            sb.delete(sb.length() - 12, sb.length());
+            Boolean enableTrigger = disabledTriggers.contains(name);
 
             switch (which) {
 
                 // Enable and Disable the trigger.
                 case 0: {
-                    File file;
-                    File newFile;
-
-                    if (enableTrigger) {
-                        file = new File(sb.toString() + "_tri_dis.xml");
-                        newFile = new File(sb.toString() + "_trigger.xml");
-                        file.renameTo(newFile);
-                    } else {
-                        file = new File(sb.toString() + "_trigger.xml");
-                        newFile = new File(sb.toString() + "_tri_dis.xml");
-                        file.renameTo(newFile);
-                    }
+                    store.setEnabled(EntityStore.TRIGGER, name, enableTrigger);
 
                     // Refresh the list of Triggers.
                     refreshListView();
                     // Refresh this list for the service.
                     Intent intent = new Intent();
                     intent.setAction("net.davidnorton.securityapp.trigger.refresh");
+                    intent.putExtra(TriggerService.EXTRA_TRIGGER_NAMES, new String[] { name });
                     getActivity().sendBroadcast(intent);
                 }
 
@@ -271,16 +241,14 @@ public class Triggers extends Fragment implements AdapterView.OnItemLongClickLis
 
                 // Delete the Trigger.
                 case 1: {
-                    File file = new File(sb.toString() + "_trigger.xml");
-                    file.delete();
-                    file = new File(sb.toString() + "_tri_dis.xml");
-                    file.delete();
+                    store.delete(EntityStore.TRIGGER, name);
 
                     // Refresh the list of Triggers.
                     refreshListView();
                     // Refresh this list for the service.
                     Intent intent = new Intent();
                     intent.setAction("net.davidnorton.securityapp.trigger.refresh");
+                    intent.putExtra(TriggerService.EXTRA_TRIGGER_NAMES, new String[] { name });
                     getActivity().sendBroadcast(intent);
                 }
                 break;
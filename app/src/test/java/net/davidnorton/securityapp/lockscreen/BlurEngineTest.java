@@ -0,0 +1,35 @@
+package net.davidnorton.securityapp.lockscreen;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class BlurEngineTest extends TestCase {
+
+    @Test
+    public void testScaledSizeIsTenPercent() throws Exception {
+        assertEquals(144, BlurEngine.scaledSize(1440));
+        assertEquals(256, BlurEngine.scaledSize(2560));
+        assertEquals(1, BlurEngine.scaledSize(3));
+    }
+
+    @Test
+    public void testSampleSizeKeepsAtLeastTargetSize() throws Exception {
+        int sample = BlurEngine.sampleSize(2880, 2560, 288, 256);
+
+        assertEquals(8, sample);
+        assertTrue(2880 / sample >= 288);
+        assertTrue(2560 / sample >= 256);
+    }
+
+    @Test
+    public void testSampleSizeLimitedBySmallerDimension() throws Exception {
+        assertEquals(4, BlurEngine.sampleSize(4000, 1000, 400, 200));
+    }
+
+    @Test
+    public void testNoSamplingForSmallImages() throws Exception {
+        assertEquals(1, BlurEngine.sampleSize(100, 100, 100, 100));
+        assertEquals(1, BlurEngine.sampleSize(150, 150, 100, 100));
+    }
+}
@@ -0,0 +1,64 @@
+package net.davidnorton.securityapp.profile;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DeviceStateTest extends TestCase {
+
+    private static Profile state(Profile.state enabled, int timeOut, Profile.mode ringerMode) {
+
+        Profile profile = new Profile("test");
+        profile.setLockscreen(enabled);
+        profile.setWifi(enabled);
+        profile.setMobileData(enabled);
+        profile.setBluetooth(enabled);
+        profile.setScreenBrightnessAutoMode(enabled);
+        profile.setScreenTimeOut(timeOut);
+        profile.setRingerMode(ringerMode);
+        return profile;
+    }
+
+    @Test
+    public void testMatchingStateHasNoChanges() throws Exception {
+        Profile current = state(Profile.state.enabled, 30000, Profile.mode.vibrate);
+        Profile profile = state(Profile.state.enabled, 1, Profile.mode.vibrate);
+
+        assertTrue(DeviceState.isEmpty(DeviceState.changes(current, profile)));
+    }
+
+    @Test
+    public void testUnchangedSettingsAreNotApplied() throws Exception {
+        Profile current = state(Profile.state.disabled, 15000, Profile.mode.normal);
+        Profile profile = new Profile("test");
+
+        assertTrue(DeviceState.isEmpty(DeviceState.changes(current, profile)));
+    }
+
+    @Test
+    public void testOnlyDifferingSettingsAreApplied() throws Exception {
+        Profile current = state(Profile.state.disabled, 60000, Profile.mode.normal);
+        Profile profile = state(Profile.state.disabled, 4, Profile.mode.normal);
+        profile.setWifi(Profile.state.enabled);
+
+        Profile changes = DeviceState.changes(current, profile);
+
+        assertEquals(Profile.state.enabled, changes.getWifi());
+        assertEquals(Profile.state.unchanged, changes.getLockscreen());
+        assertEquals(Profile.state.unchanged, changes.getBluetooth());
+        assertEquals(4, changes.getScreenTimeOut());
+        assertEquals(Profile.mode.unchanged, changes.getRingerMode());
+    }
+
+    @Test
+    public void testUnreadableStateIsAlwaysApplied() throws Exception {
+        Profile current = new Profile(null);
+        Profile profile = state(Profile.state.enabled, 0, Profile.mode.silent);
+
+        Profile changes = DeviceState.changes(current, profile);
+
+        assertEquals(Profile.state.enabled, changes.getMobileData());
+        assertEquals(0, changes.getScreenTimeOut());
+        assertEquals(Profile.mode.silent, changes.getRingerMode());
+    }
+}
@@ -0,0 +1,65 @@
+package net.davidnorton.securityapp.services;
+
+import junit.framework.TestCase;
+
+import net.davidnorton.securityapp.trigger.Trigger;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TriggerEngineTest extends TestCase {
+
+    private static TriggerEngine engine(String... geofences) {
+
+        Trigger[] triggers = new Trigger[geofences.length];
+        for (int i = 0; i < geofences.length; i++) {
+            triggers[i] = new Trigger(geofences[i]);
+            triggers[i].setGeofence(geofences[i]);
+        }
+
+        TriggerEngine engine = new TriggerEngine();
+        engine.setTriggers(Arrays.asList(triggers));
+        return engine;
+    }
+
+    private static boolean matches(TriggerEngine engine, String name) {
+
+        for (Trigger trigger : engine.getMatchingTriggers()) {
+            if (trigger.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testLeavingOneGeofenceKeepsTheOthers() throws Exception {
+        TriggerEngine engine = engine("home", "work");
+
+        assertTrue(engine.setInsideGeofence("home", true));
+        assertTrue(engine.setInsideGeofence("work", true));
+        assertTrue(engine.setInsideGeofence("home", false));
+
+        assertFalse(matches(engine, "home"));
+        assertTrue(matches(engine, "work"));
+    }
+
+    @Test
+    public void testRepeatedTransitionChangesNothing() throws Exception {
+        TriggerEngine engine = engine("home");
+
+        assertTrue(engine.setInsideGeofence("home", true));
+        assertFalse(engine.setInsideGeofence("home", true));
+        assertTrue(engine.setInsideGeofence("home", false));
+        assertFalse(engine.setInsideGeofence("home", false));
+    }
+
+    @Test
+    public void testUnknownGeofenceChangesNothing() throws Exception {
+        TriggerEngine engine = engine("home");
+
+        assertFalse(engine.setInsideGeofence("gym", true));
+        assertFalse(matches(engine, "home"));
+    }
+}
@@ -0,0 +1,35 @@
+package net.davidnorton.securityapp.services;
+
+import junit.framework.TestCase;
+
+import net.davidnorton.securityapp.trigger.Trigger;
+
+import org.junit.Test;
+
+public class TriggerEvaluatorTest extends TestCase {
+
+    private static Trigger trigger(String name, String profile) {
+
+        Trigger trigger = new Trigger(name);
+        trigger.setProfileName(profile);
+        return trigger;
+    }
+
+    @Test
+    public void testReloadedWinnerIsSame() throws Exception {
+        assertTrue(TriggerEvaluator.isSameTrigger(trigger("home", "silent"), trigger("home", "silent")));
+    }
+
+    @Test
+    public void testReloadedWinnerWithChangedProfileIsNew() throws Exception {
+        assertFalse(TriggerEvaluator.isSameTrigger(trigger("home", "silent"), trigger("home", "loud")));
+    }
+
+    @Test
+    public void testOtherOrNoWinnerIsNew() throws Exception {
+        assertFalse(TriggerEvaluator.isSameTrigger(trigger("home", "silent"), trigger("work", "silent")));
+        assertFalse(TriggerEvaluator.isSameTrigger(trigger("home", "silent"), null));
+        assertFalse(TriggerEvaluator.isSameTrigger(null, trigger("home", "silent")));
+        assertTrue(TriggerEvaluator.isSameTrigger(null, null));
+    }
+}
@@ -0,0 +1,87 @@
+package net.davidnorton.securityapp.trigger;
+
+import com.google.android.gms.location.Geofence;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GeofencePolygonTest extends TestCase {
+
+    // An L shape about 1 km across, missing its north east quarter.
+    private static final double[] L_LATITUDES = { 51.500, 51.500, 51.505, 51.505, 51.510, 51.510 };
+    private static final double[] L_LONGITUDES = { -0.110, -0.100, -0.100, -0.105, -0.105, -0.110 };
+
+    @Test
+    public void testContains() throws Exception {
+        GeofencePolygon polygon = new GeofencePolygon(L_LATITUDES, L_LONGITUDES);
+
+        assertTrue(polygon.contains(51.502, -0.102));
+        assertTrue(polygon.contains(51.508, -0.108));
+
+        // Inside the bounding box, but in the missing quarter.
+        assertFalse(polygon.contains(51.508, -0.102));
+
+        // Outside the bounding box.
+        assertFalse(polygon.contains(51.512, -0.108));
+        assertFalse(polygon.contains(51.502, -0.098));
+    }
+
+    @Test
+    public void testEnclosingCircleCoversCorners() throws Exception {
+        GeofencePolygon polygon = new GeofencePolygon(L_LATITUDES, L_LONGITUDES);
+        SimpleGeofence circle = new SimpleGeofence("circle", polygon.getCenterLatitude(), polygon.getCenterLongitude(),
+                polygon.getRadius(), Geofence.NEVER_EXPIRE, Geofence.GEOFENCE_TRANSITION_ENTER);
+        GeofenceIndex index = new GeofenceIndex();
+        GeofenceIndex.Circle indexed = index.put(circle);
+
+        for (int i = 0; i < polygon.size(); i++) {
+            assertTrue(indexed.contains(polygon.getLatitude(i), polygon.getLongitude(i)));
+        }
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        GeofencePolygon polygon = new GeofencePolygon(
+                new double[] { 51.50012345678901, 51.5, 51.501 }, new double[] { -0.1, -0.09912345678901, -0.1 });
+        GeofencePolygon decoded = GeofencePolygon.decode(polygon.encode());
+
+        assertEquals(polygon.size(), decoded.size());
+        for (int i = 0; i < polygon.size(); i++) {
+            assertEquals(polygon.getLatitude(i), decoded.getLatitude(i));
+            assertEquals(polygon.getLongitude(i), decoded.getLongitude(i));
+        }
+
+        assertNull(GeofencePolygon.decode(""));
+        assertNull(GeofencePolygon.decode("51.5,-0.1;51.6,-0.1"));
+        assertNull(GeofencePolygon.decode("51.5,-0.1;51.6;51.6,-0.2"));
+    }
+
+    @Test
+    public void testTrackerUsesPolygon() throws Exception {
+        GeofencePolygon polygon = new GeofencePolygon(L_LATITUDES, L_LONGITUDES);
+        GeofenceTracker tracker = new GeofenceTracker();
+        tracker.put(new SimpleGeofence("site", polygon, Geofence.NEVER_EXPIRE,
+                Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT));
+        final List<String> events = new ArrayList<>();
+        GeofenceTracker.Listener listener = new GeofenceTracker.Listener() {
+            @Override
+            public void onTransition(int transition, String[] ids) {
+                for (String id : ids) {
+                    events.add((transition == Geofence.GEOFENCE_TRANSITION_ENTER ? "+" : "-") + id);
+                }
+            }
+        };
+
+        // Inside the enclosing circle but not the polygon, then inside, then the missing quarter again.
+        tracker.update(51.508, -0.102, listener);
+        tracker.update(51.502, -0.102, listener);
+        tracker.update(51.508, -0.102, listener);
+
+        assertEquals(Arrays.asList("+site", "-site"), events);
+    }
+}
@@ -0,0 +1,133 @@
+package net.davidnorton.securityapp.trigger;
+
+import com.google.android.gms.location.Geofence;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GeofenceTrackerTest extends TestCase {
+
+    // About 100 m of latitude.
+    private static final double HUNDRED_METERS = 100 / 111195.0;
+
+    private static final int BOTH = Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT;
+
+    /**
+     * Records the transitions reported, as "+id" for entering and "-id" for leaving.
+     */
+    private static final class Recorder implements GeofenceTracker.Listener {
+
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onTransition(int transition, String[] ids) {
+            for (String id : ids) {
+                events.add((transition == Geofence.GEOFENCE_TRANSITION_ENTER ? "+" : "-") + id);
+            }
+        }
+    }
+
+    private static SimpleGeofence fence(String id, double latitude, double longitude, float radius, int transitions) {
+        return new SimpleGeofence(id, latitude, longitude, radius, Geofence.NEVER_EXPIRE, transitions);
+    }
+
+    @Test
+    public void testTraceThroughTwoFences() throws Exception {
+        GeofenceTracker tracker = new GeofenceTracker();
+        tracker.put(fence("home", 51.5, -0.1, 150, BOTH));
+        tracker.put(fence("work", 51.5 + 5 * HUNDRED_METERS, -0.1, 150, BOTH));
+        Recorder recorder = new Recorder();
+
+        // Walk north from 300 m south of home to 300 m north of work.
+        for (int step = -3; step <= 8; step++) {
+            tracker.update(51.5 + step * HUNDRED_METERS, -0.1, recorder);
+        }
+
+        assertEquals(Arrays.asList("+home", "-home", "+work", "-work"), recorder.events);
+    }
+
+    @Test
+    public void testOnlyRegisteredTransitionsAreReported() throws Exception {
+        GeofenceTracker tracker = new GeofenceTracker();
+        tracker.put(fence("home", 51.5, -0.1, 100, Geofence.GEOFENCE_TRANSITION_ENTER));
+        tracker.put(fence("home_exit", 51.5, -0.1, 100, Geofence.GEOFENCE_TRANSITION_EXIT));
+        Recorder recorder = new Recorder();
+
+        tracker.update(51.5, -0.1, recorder);
+        tracker.update(51.5, -0.1, recorder);
+        tracker.update(51.6, -0.1, recorder);
+
+        assertEquals(Arrays.asList("+home", "-home_exit"), recorder.events);
+    }
+
+    @Test
+    public void testRemovedFenceIsNotLeft() throws Exception {
+        GeofenceTracker tracker = new GeofenceTracker();
+        tracker.put(fence("home", 51.5, -0.1, 100, BOTH));
+        Recorder recorder = new Recorder();
+
+        tracker.update(51.5, -0.1, recorder);
+        tracker.remove("home");
+        tracker.update(51.6, -0.1, recorder);
+
+        assertEquals(Arrays.asList("+home"), recorder.events);
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void testLargeFenceIsFound() throws Exception {
+        GeofenceTracker tracker = new GeofenceTracker();
+        tracker.put(fence("city", 51.5, -0.1, 20000, BOTH));
+        Recorder recorder = new Recorder();
+
+        tracker.update(51.5 + 150 * HUNDRED_METERS, -0.1, recorder);
+        tracker.update(51.5 + 250 * HUNDRED_METERS, -0.1, recorder);
+
+        assertEquals(Arrays.asList("+city", "-city"), recorder.events);
+    }
+
+    @Test
+    public void testThousandsOfFencesMatchBruteForce() throws Exception {
+        Random random = new Random(42);
+        GeofenceIndex index = new GeofenceIndex();
+        List<GeofenceIndex.Circle> all = new ArrayList<>();
+
+        // Fences of 20 m to 2 km scattered over about 50 by 50 km.
+        for (int i = 0; i < 5000; i++) {
+            float radius = 20 + random.nextFloat() * 1980;
+            all.add(index.put(fence("f" + i, 51.3 + random.nextDouble() * 0.45, -0.5 + random.nextDouble() * 0.7, radius, BOTH)));
+        }
+        assertEquals(5000, index.size());
+
+        List<GeofenceIndex.Circle> found = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double latitude = 51.3 + random.nextDouble() * 0.45;
+            double longitude = -0.5 + random.nextDouble() * 0.7;
+
+            Set<String> expected = new HashSet<>();
+            for (GeofenceIndex.Circle circle : all) {
+                if (circle.contains(latitude, longitude)) {
+                    expected.add(circle.id);
+                }
+            }
+
+            found.clear();
+            index.query(latitude, longitude, found);
+            Set<String> actual = new HashSet<>();
+            for (GeofenceIndex.Circle circle : found) {
+                actual.add(circle.id);
+            }
+
+            assertEquals(found.size(), actual.size());
+            assertEquals(expected, actual);
+        }
+    }
+}
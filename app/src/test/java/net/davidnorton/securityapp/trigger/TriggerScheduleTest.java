@@ -0,0 +1,117 @@
+package net.davidnorton.securityapp.trigger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+
+public class TriggerScheduleTest extends TestCase {
+
+    private static final int MONDAY = 0;
+    private static final int TUESDAY = TriggerSchedule.MINUTES_PER_DAY;
+    private static final int SUNDAY = 6 * TriggerSchedule.MINUTES_PER_DAY;
+
+    private static Trigger trigger(int startHours, int startMinutes, int endHours, int endMinutes, String... weekdays) {
+
+        Trigger trigger = new Trigger("test");
+        trigger.setStartHours(startHours);
+        trigger.setStartMinutes(startMinutes);
+        trigger.setEndHours(endHours);
+        trigger.setEndMinutes(endMinutes);
+        trigger.setWeekdays(new HashSet<>(Arrays.asList(weekdays)));
+        return trigger;
+    }
+
+    @Test
+    public void testUnrestrictedTriggerHasNoSchedule() throws Exception {
+        assertNull(TriggerSchedule.compile(trigger(-1, -1, -1, -1)));
+        assertNull(TriggerSchedule.compile(trigger(-1, -1, -1, -1, "1", "2", "3", "4", "5", "6", "7")));
+    }
+
+    @Test
+    public void testSameDayRangeIsInclusive() throws Exception {
+        long[] bits = TriggerSchedule.compile(trigger(9, 30, 17, 0));
+
+        assertFalse(TriggerSchedule.contains(bits, MONDAY + 9 * 60 + 29));
+        assertTrue(TriggerSchedule.contains(bits, MONDAY + 9 * 60 + 30));
+        assertTrue(TriggerSchedule.contains(bits, SUNDAY + 17 * 60));
+        assertFalse(TriggerSchedule.contains(bits, SUNDAY + 17 * 60 + 1));
+    }
+
+    @Test
+    public void testOvernightRangeContinuesIntoNextDay() throws Exception {
+        long[] bits = TriggerSchedule.compile(trigger(22, 0, 2, 0, "1"));
+
+        assertTrue(TriggerSchedule.contains(bits, MONDAY + 23 * 60));
+        assertTrue(TriggerSchedule.contains(bits, TUESDAY + 60));
+        assertFalse(TriggerSchedule.contains(bits, MONDAY + 60));
+        assertFalse(TriggerSchedule.contains(bits, TUESDAY + 23 * 60));
+    }
+
+    @Test
+    public void testOvernightRangeOnSundayWrapsToMonday() throws Exception {
+        long[] bits = TriggerSchedule.compile(trigger(23, 0, 1, 0, "7"));
+
+        assertTrue(TriggerSchedule.contains(bits, SUNDAY + 23 * 60 + 30));
+        assertTrue(TriggerSchedule.contains(bits, MONDAY + 30));
+    }
+
+    @Test
+    public void testStartTimeOnlyMatchesExactMinute() throws Exception {
+        long[] bits = TriggerSchedule.compile(trigger(8, 15, -1, -1));
+
+        assertTrue(TriggerSchedule.contains(bits, TUESDAY + 8 * 60 + 15));
+        assertFalse(TriggerSchedule.contains(bits, TUESDAY + 8 * 60 + 16));
+    }
+
+    @Test
+    public void testWeekdaysWithoutTimeMatchWholeDay() throws Exception {
+        long[] bits = TriggerSchedule.compile(trigger(-1, -1, -1, -1, "2"));
+
+        assertTrue(TriggerSchedule.contains(bits, TUESDAY));
+        assertTrue(TriggerSchedule.contains(bits, TUESDAY + TriggerSchedule.MINUTES_PER_DAY - 1));
+        assertFalse(TriggerSchedule.contains(bits, MONDAY + 12 * 60));
+    }
+
+    @Test
+    public void testMinuteOfWeekStartsOnMonday() throws Exception {
+        Calendar cal = Calendar.getInstance();
+        cal.set(2016, Calendar.JUNE, 6, 0, 0);
+        assertEquals(MONDAY, TriggerSchedule.minuteOfWeek(cal));
+
+        cal.set(2016, Calendar.JUNE, 12, 23, 59);
+        assertEquals(TriggerSchedule.MINUTES_PER_WEEK - 1, TriggerSchedule.minuteOfWeek(cal));
+    }
+
+    @Test
+    public void testBoundariesAtStartAndAfterEnd() throws Exception {
+        long[] boundaries = TriggerSchedule.newBitmap();
+        TriggerSchedule.addBoundaries(TriggerSchedule.compile(trigger(9, 0, 17, 0, "1")), boundaries);
+
+        assertEquals(MONDAY + 9 * 60, TriggerSchedule.nextSetMinute(boundaries, MONDAY));
+        assertEquals(MONDAY + 17 * 60 + 1, TriggerSchedule.nextSetMinute(boundaries, MONDAY + 9 * 60));
+        assertEquals(MONDAY + 9 * 60, TriggerSchedule.nextSetMinute(boundaries, SUNDAY + 12 * 60));
+    }
+
+    @Test
+    public void testBoundaryWrapsAroundEndOfWeek() throws Exception {
+        long[] boundaries = TriggerSchedule.newBitmap();
+        TriggerSchedule.addBoundaries(TriggerSchedule.compile(trigger(-1, -1, -1, -1, "1")), boundaries);
+
+        assertEquals(MONDAY, TriggerSchedule.nextSetMinute(boundaries, TriggerSchedule.MINUTES_PER_WEEK - 1));
+        assertEquals(TUESDAY, TriggerSchedule.nextSetMinute(boundaries, MONDAY));
+        assertEquals(-1, TriggerSchedule.nextSetMinute(TriggerSchedule.newBitmap(), MONDAY));
+    }
+
+    @Test
+    public void testBoundariesOfRangeWrappingToMonday() throws Exception {
+        long[] boundaries = TriggerSchedule.newBitmap();
+        TriggerSchedule.addBoundaries(TriggerSchedule.compile(trigger(23, 0, 1, 0, "7")), boundaries);
+
+        assertEquals(MONDAY + 61, TriggerSchedule.nextSetMinute(boundaries, SUNDAY + 23 * 60));
+        assertEquals(SUNDAY + 23 * 60, TriggerSchedule.nextSetMinute(boundaries, MONDAY + 61));
+    }
+}